@@ -0,0 +1,26 @@
+ /**
+ * The AppendListener interface is implemented by the classes that only need
+ * to know which users records are added for, not the sessions they make, for
+ * example to drop what they remember about those users. Unlike session
+ * listeners, append listeners are not told about the records added before
+ * they were registered, so registering one costs nothing on any store.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+
+public interface AppendListener {
+
+    /**
+     * Called after a record was added to a store, once queries can see it.
+     *
+     * @param userId the id of the username of the record in the global UsernameDictionary
+     */
+    void recordAppended(int userId);
+
+    /**
+     * Called after all records were removed from a store, once queries can no
+     * longer see them.
+     */
+    void recordsCleared();
+}
@@ -0,0 +1,121 @@
+ /**
+ * The BatchQueryRunner answers a whole stream of "first USERNAME" and
+ * "last USERNAME" commands at once. The commands are read up front and grouped
+ * by user, each distinct user is looked up a single time through a
+ * SessionCache, and the results are written in input order through a buffered
+ * writer.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+public class BatchQueryRunner {
+
+    private SessionCache sessions;
+
+    /**
+     * Constructs a BatchQueryRunner that answers queries from the given
+     * records, through a SessionCache of its own registered on the store.
+     *
+     * @param records the records to query
+     * @throws IllegalArgumentException If records is null.
+     */
+    public BatchQueryRunner(RecordStore records) {
+        this(SessionCache.attach(records));
+    }
+
+    /**
+     * Constructs a BatchQueryRunner that answers queries through the given cache.
+     *
+     * @param sessions the cache the queries are answered through
+     * @throws IllegalArgumentException If sessions is null.
+     */
+    public BatchQueryRunner(SessionCache sessions) {
+        if (sessions == null) {
+            throw new IllegalArgumentException("Session cache cannot be null.");
+        }
+        this.sessions = sessions;
+    }
+
+    /**
+     * Answers every command of the input, up to the end of the input or a
+     * "quit" line. Each session is written to the output followed by an empty
+     * line, in the order of the commands. Invalid commands and users without
+     * sessions are reported on the error stream, also in command order.
+     *
+     * @param input the commands, one per line
+     * @param output receives the sessions found
+     * @param errors receives the error messages
+     * @return the number of commands answered with a session
+     * @throws IOException If an error occurs while reading the input or writing the output.
+     */
+    public int run(Reader input, Writer output, PrintStream errors) throws IOException {
+        // Read the commands and group them by user
+        ArrayList<String> users = new ArrayList<>();
+        ArrayList<Boolean> firsts = new ArrayList<>();
+        HashMap<String, Session[]> results = new HashMap<>();
+        BufferedReader reader = new BufferedReader(input);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.equalsIgnoreCase("quit")) {
+                break;
+            }
+            String[] parts = line.split(" ");
+            boolean valid = parts.length == 2
+                    && (parts[0].equalsIgnoreCase("first") || parts[0].equalsIgnoreCase("last"));
+            users.add(valid ? parts[1] : null);
+            firsts.add(valid && parts[0].equalsIgnoreCase("first"));
+            if (valid) {
+                results.putIfAbsent(parts[1], null);
+            }
+        }
+
+        // Look every distinct user up once
+        for (String user : results.keySet()) {
+            results.put(user, lookup(user));
+        }
+
+        // Answer in input order
+        BufferedWriter writer = new BufferedWriter(output, 1 << 16);
+        SessionFormatter formatter = SessionFormatter.getDefault();
+        StringBuilder sb = new StringBuilder(256);
+        int answered = 0;
+        for (int i = 0; i < users.size(); i++) {
+            String user = users.get(i);
+            if (user == null) {
+                errors.println("Error: This is not a valid query. Try again.");
+                continue;
+            }
+            Session[] sessions = results.get(user);
+            if (sessions == null) {
+                errors.println("Error: No matching session found for user: " + user);
+                continue;
+            }
+            sb.setLength(0);
+            formatter.append(sb, sessions[firsts.get(i) ? 0 : 1]).append("\n\n");
+            writer.append(sb);
+            answered++;
+        }
+        writer.flush();
+        return answered;
+    }
+
+    // Returns the first and last session of the user, or null if the user has none
+    private Session[] lookup(String user) {
+        try {
+            return new Session[] { sessions.getFirstSession(user), sessions.getLastSession(user) };
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+}
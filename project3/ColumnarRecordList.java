@@ -0,0 +1,295 @@
+ /**
+ * The ColumnarRecordList stores records in parallel primitive arrays instead
+ * of one object per record: the terminals, the times in milliseconds, the
+ * username ids and a bit set of the logins. Record objects are only created
+ * when a record is read back, and session queries pair the records of the
+ * requested user on demand, so the heap holds about 20 bytes per log line.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ColumnarRecordList implements RecordStore, Iterable<Record> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private UsernameDictionary usernames;
+
+    // One entry per record, in the order the records were added
+    private int[] terminals = new int[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] userIds = new int[INITIAL_CAPACITY];
+    private BitSet logins = new BitSet();
+    private int size;
+
+    // Positions of the records of each user, indexed by username id
+    private int[][] userPositions = new int[16][];
+    private int[] userCounts = new int[16];
+
+    // Pairs the records added for each session listener, keeping only the open logins
+    private ArrayList<Sessionizer> pairings = new ArrayList<>();
+    // Told the user of every record added
+    private CopyOnWriteArrayList<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
+    // Default constructor to create an empty ColumnarRecordList that uses the global username dictionary
+    public ColumnarRecordList() {
+        this(UsernameDictionary.getGlobal());
+    }
+
+    /**
+     * Constructs an empty ColumnarRecordList that encodes usernames with the
+     * given dictionary.
+     *
+     * @param usernames the dictionary of usernames
+     * @throws IllegalArgumentException If the dictionary is null.
+     */
+    public ColumnarRecordList(UsernameDictionary usernames) {
+        if (usernames == null) {
+            throw new IllegalArgumentException("Username dictionary cannot be null.");
+        }
+        this.usernames = usernames;
+    }
+
+    /**
+     * Appends the record to the end of the list.
+     *
+     * @param record the record to add
+     * @return true
+     * @throws IllegalArgumentException If the record is null.
+     */
+    @Override
+    public boolean add(Record record) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record cannot be null.");
+        }
+        int userId = (usernames == UsernameDictionary.getGlobal())
+                ? record.getUserId() : usernames.intern(record.getUsername());
+        add(record.getTerminal(), record.isLogin(), userId, record.getTimeMillis());
+        return true;
+    }
+
+    /**
+     * Appends a record given by its values, without creating a Record object.
+     *
+     * @param terminal the terminal number of the record
+     * @param login whether the record is a login
+     * @param userId the id of the username in the dictionary of this list
+     * @param time the time of the record in milliseconds since the epoch
+     * @throws IllegalArgumentException If the terminal is not positive or the id is unknown.
+     */
+    public void add(int terminal, boolean login, int userId, long time) {
+        if (terminal <= 0) {
+            throw new IllegalArgumentException("Terminal number must be a positive integer.");
+        }
+        if (userId < 0 || userId >= usernames.size()) {
+            throw new IllegalArgumentException("Unknown username id: " + userId);
+        }
+        if (size == terminals.length) {
+            int capacity = size + (size >> 1);
+            terminals = Arrays.copyOf(terminals, capacity);
+            times = Arrays.copyOf(times, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+        }
+        terminals[size] = terminal;
+        times[size] = time;
+        userIds[size] = userId;
+        if (login) {
+            logins.set(size);
+        }
+        addPosition(userId, size);
+        size++;
+        if (!pairings.isEmpty()) {
+            Record record = get(size - 1);
+            for (Sessionizer pairing : pairings) {
+                pairing.accept(record);
+            }
+        }
+        if (!appendListeners.isEmpty()) {
+            int globalId = usernames.globalId(userId);
+            for (AppendListener listener : appendListeners) {
+                listener.recordAppended(globalId);
+            }
+        }
+    }
+
+    /**
+     * Returns the dictionary the usernames of this list are encoded with.
+     * @return the username dictionary
+     */
+    public UsernameDictionary getUsernames() {
+        return usernames;
+    }
+
+    /**
+     * Returns a Record view of the record at the given position.
+     *
+     * @param index the position of the record
+     * @return a new Record holding the values stored at that position
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    @Override
+    public Record get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new Record(terminals[index], logins.get(index),
+                usernames.globalId(userIds[index]), times[index]);
+    }
+
+    /**
+     * Returns the number of records in the list.
+     * @return the number of records
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Registers a listener to be told about the sessions already paired and
+     * the sessions of every record added from now on. The records are read
+     * back and paired for the listener, in log order, by a Sessionizer that
+     * keeps only the open logins, so the list stays as small as without it.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        Sessionizer pairing = new Sessionizer(false);
+        pairing.addListener(listener);
+        for (Record record : this) {
+            pairing.accept(record);
+        }
+        pairings.add(pairing);
+    }
+
+    /**
+     * Registers a listener to be told the user of every record added from now
+     * on, once the record can be seen by queries. Nothing is replayed to it.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addAppendListener(AppendListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        appendListeners.add(listener);
+    }
+
+    /**
+     * Returns the sessions of the given user ordered by login time. The
+     * sessions are paired from the user's records on every call.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     */
+    @Override
+    public List<Session> getSessions(String user) {
+        Sessionizer sessionizer = new Sessionizer();
+        int userId = usernames.lookup(user);
+        if (userId >= 0 && userId < userPositions.length && userPositions[userId] != null) {
+            int[] positions = userPositions[userId];
+            for (int i = 0; i < userCounts[userId]; i++) {
+                sessionizer.accept(get(positions[i]));
+            }
+        }
+        return sessionizer.getSessions(user);
+    }
+
+    /**
+     * Retrieves the first session for the specified user.
+     * The first session is defined as the session with the earliest login time.
+     *
+     * @param user The username to search for.
+     * @return The first Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getFirstSession(String user) {
+        List<Session> sessions = getUserSessions(user);
+        return sessions.get(0);
+    }
+
+    /**
+     * Retrieves the last session for the specified user.
+     * The last session is defined as the session with the latest login time.
+     *
+     * @param user The username to search for.
+     * @return The last Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getLastSession(String user) {
+        List<Session> sessions = getUserSessions(user);
+        return sessions.get(sessions.size() - 1);
+    }
+
+    /**
+     * Returns an iterator over Record views of the records in the list.
+     *
+     * @return an iterator over the records, in the order they were added
+     */
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Record next() {
+                if (next >= size) {
+                    throw new NoSuchElementException("the end of the list reached");
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    // Validates the username and returns its non-empty list of sessions
+    private List<Session> getUserSessions(String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        List<Session> sessions = getSessions(user);
+        if (sessions.isEmpty()) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        return sessions;
+    }
+
+    // Records that the record at the given position belongs to the user
+    private void addPosition(int userId, int position) {
+        if (userId >= userPositions.length) {
+            int capacity = Math.max(userId + 1, userPositions.length * 2);
+            userPositions = Arrays.copyOf(userPositions, capacity);
+            userCounts = Arrays.copyOf(userCounts, capacity);
+        }
+        int[] positions = userPositions[userId];
+        if (positions == null) {
+            positions = new int[4];
+        } else if (userCounts[userId] == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[userCounts[userId]++] = position;
+        userPositions[userId] = positions;
+    }
+}
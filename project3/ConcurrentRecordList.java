@@ -0,0 +1,348 @@
+ /**
+ * The ConcurrentRecordList is a RecordStore that one thread can add records to
+ * while any number of other threads query it, without the readers ever taking
+ * a lock.
+ *
+ * Records are kept in fixed-size segments that are never moved once written,
+ * and the number of records is published through a volatile field after each
+ * record is stored. The sessions of each user are kept in an array that is only
+ * appended to or patched in place, and every change is published by replacing
+ * a small immutable view of it. The sessions of a new user are published
+ * through an AtomicReferenceArray, so a reader that finds them also sees their
+ * first view. A reader therefore always sees a consistent
+ * prefix of the log and the sessions paired from it. Writers are serialized on
+ * the list itself.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class ConcurrentRecordList implements RecordStore, Iterable<Record> {
+
+    private static final int SEGMENT_SHIFT = 14;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    // Segments of records, the outer array is replaced when it needs to grow
+    private volatile Record[][] segments = new Record[16][];
+    private volatile int size;
+
+    // Sessions of each user by username id, readable without locking; the array
+    // is replaced when it needs to grow
+    private volatile AtomicReferenceArray<UserSessions> users = new AtomicReferenceArray<>(16);
+    // Pairs the records on the writer's side, the sessions are kept in users
+    private Sessionizer pairing = new Sessionizer(false);
+    // Told the user of every record added
+    private CopyOnWriteArrayList<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
+    // Default constructor to create an empty ConcurrentRecordList object
+    public ConcurrentRecordList() {
+        pairing.addListener(new SessionListener() {
+            @Override
+            public void sessionOpened(Session session) {
+                getOrAdd(session.getUserId()).insert(session);
+            }
+
+            @Override
+            public void sessionClosed(Session active, Session closed) {
+                users.get(active.getUserId()).replace(active, closed);
+            }
+        });
+    }
+
+    /**
+     * Appends the record to the end of the list and pairs it into the sessions
+     * of its user. Concurrent calls are serialized.
+     *
+     * @param record the record to add
+     * @return true
+     * @throws IllegalArgumentException If the record is null.
+     */
+    @Override
+    public synchronized boolean add(Record record) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record cannot be null.");
+        }
+        int index = size;
+        int segment = index >>> SEGMENT_SHIFT;
+        Record[][] current = segments;
+        if (segment == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if (current[segment] == null) {
+            current[segment] = new Record[SEGMENT_SIZE];
+        }
+        current[segment][index & SEGMENT_MASK] = record;
+        segments = current;
+
+        pairing.accept(record);
+        // Publishes the record (and its sessions) to the readers
+        size = index + 1;
+        for (AppendListener listener : appendListeners) {
+            listener.recordAppended(record.getUserId());
+        }
+        return true;
+    }
+
+    /**
+     * Returns the record at the given position.
+     *
+     * @param index the position of the record
+     * @return the record at that position
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    @Override
+    public Record get(int index) {
+        int published = size;
+        if (index < 0 || index >= published) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + published);
+        }
+        return segments[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK];
+    }
+
+    /**
+     * Returns the number of records added so far.
+     * @return the number of records
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Queries never need external locking, even while records are being added.
+     * @return true
+     */
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    /**
+     * Registers a listener to be told about the sessions already paired and
+     * the sessions of every record added from now on. The listener is called
+     * by the writer, while it holds the lock of the list.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public synchronized void addSessionListener(SessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        ArrayList<Session> all = new ArrayList<>();
+        AtomicReferenceArray<UserSessions> current = users;
+        for (int userId = 0; userId < current.length(); userId++) {
+            UserSessions sessions = current.get(userId);
+            if (sessions == null) {
+                continue;
+            }
+            View view = sessions.view;
+            all.addAll(Arrays.asList(view.sessions).subList(0, view.count));
+        }
+        Sessionizer.replay(all, listener);
+        pairing.addListener(listener);
+    }
+
+    /**
+     * Registers a listener to be told the user of every record added from now
+     * on, once the record can be seen by queries. Nothing is replayed to it.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public synchronized void addAppendListener(AppendListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        appendListeners.add(listener);
+    }
+
+    /**
+     * Returns a snapshot of the sessions of the given user ordered by login time.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     */
+    @Override
+    public List<Session> getSessions(String user) {
+        UserSessions sessions = get(user);
+        if (sessions == null) {
+            return Collections.emptyList();
+        }
+        View view = sessions.view;
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(view.sessions, view.count)));
+    }
+
+    /**
+     * Retrieves the first session for the specified user.
+     * The first session is defined as the session with the earliest login time.
+     *
+     * @param user The username to search for.
+     * @return The first Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getFirstSession(String user) {
+        View view = getView(user);
+        return view.sessions[0];
+    }
+
+    /**
+     * Retrieves the last session for the specified user.
+     * The last session is defined as the session with the latest login time.
+     *
+     * @param user The username to search for.
+     * @return The last Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getLastSession(String user) {
+        View view = getView(user);
+        return view.sessions[view.count - 1];
+    }
+
+    /**
+     * Returns an iterator over the records added before this call.
+     *
+     * @return an iterator over the records, in the order they were added
+     */
+    @Override
+    public Iterator<Record> iterator() {
+        int end = size;
+        return new Iterator<Record>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Record next() {
+                if (next >= end) {
+                    throw new NoSuchElementException("the end of the list reached");
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    // Validates the username and returns the current non-empty view of its sessions
+    private View getView(String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        UserSessions sessions = get(user);
+        View view = (sessions != null) ? sessions.view : null;
+        if (view == null || view.count == 0) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        return view;
+    }
+
+    // Returns the sessions of the user with the given name, or null if there are none
+    private UserSessions get(String user) {
+        int userId = UsernameDictionary.getGlobal().lookup(user);
+        AtomicReferenceArray<UserSessions> current = users;
+        return (userId >= 0 && userId < current.length()) ? current.get(userId) : null;
+    }
+
+    // Called by the writer only
+    private UserSessions getOrAdd(int userId) {
+        AtomicReferenceArray<UserSessions> current = users;
+        if (userId >= current.length()) {
+            AtomicReferenceArray<UserSessions> grown =
+                    new AtomicReferenceArray<>(Math.max(userId + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            users = grown;
+            current = grown;
+        }
+        UserSessions sessions = current.get(userId);
+        if (sessions == null) {
+            sessions = new UserSessions();
+            current.set(userId, sessions);
+        }
+        return sessions;
+    }
+
+    /* An immutable view of the first count sessions of an array. */
+    private static class View {
+        final Session[] sessions;
+        final int count;
+
+        View(Session[] sessions, int count) {
+            this.sessions = sessions;
+            this.count = count;
+        }
+    }
+
+    /* Sessions of a single user ordered by login time; only the writer changes them. */
+    private static class UserSessions {
+        volatile View view = new View(new Session[2], 0);
+
+        // Inserts after any session with the same login time, so arrival order breaks ties
+        void insert(Session session) {
+            View current = view;
+            Session[] sessions = current.sessions;
+            int count = current.count;
+            int index = upperBound(current, session.getLoginMillis());
+            if (index == count && count < sessions.length) {
+                // Slots past count are not visible to readers, so the array can be shared
+                sessions[count] = session;
+            } else {
+                int capacity = (count == sessions.length) ? sessions.length * 2 : sessions.length;
+                Session[] copy = new Session[capacity];
+                System.arraycopy(sessions, 0, copy, 0, index);
+                copy[index] = session;
+                System.arraycopy(sessions, index, copy, index + 1, count - index);
+                sessions = copy;
+            }
+            view = new View(sessions, count + 1);
+        }
+
+        // Swaps an active session for its closed version; readers see one or the other
+        void replace(Session active, Session closed) {
+            View current = view;
+            int index = upperBound(current, active.getLoginMillis()) - 1;
+            while (current.sessions[index] != active) {
+                index--;
+            }
+            current.sessions[index] = closed;
+            view = new View(current.sessions, current.count);
+        }
+
+        // Index of the first session logged in strictly after the given time
+        private static int upperBound(View view, long time) {
+            int count = view.count;
+            if (count == 0 || view.sessions[count - 1].getLoginMillis() <= time) {
+                return count;
+            }
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (view.sessions[mid].getLoginMillis() <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+ /**
+ * The DurationSketch estimates percentiles of session durations in constant
+ * space. Durations are counted in buckets whose bounds grow geometrically, so
+ * every estimate is within a fixed relative error of a duration that was
+ * actually added, whatever the spread of the durations. Sketches with the same
+ * accuracy can be merged by adding their bucket counts, for example to combine
+ * the sketches of parts of a log that were read separately.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.NoSuchElementException;
+
+public class DurationSketch {
+
+    private static final double DEFAULT_ACCURACY = 0.01;
+
+    private double accuracy;
+    private double gamma;
+    private double logGamma;
+
+    // Bucket b holds the durations in (gamma^(b-1), gamma^b], counts[i] is the size of bucket offset + i
+    private long[] counts = new long[0];
+    private int offset;
+    private long zeroCount;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    // Default constructor to create an empty DurationSketch with 1% relative accuracy
+    public DurationSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /**
+     * Constructs an empty DurationSketch.
+     *
+     * @param accuracy the relative error of the estimates, between 0 and 1
+     * @throws IllegalArgumentException If the accuracy is not between 0 and 1.
+     */
+    public DurationSketch(double accuracy) {
+        if (!(accuracy > 0 && accuracy < 1)) {
+            throw new IllegalArgumentException("Accuracy must be between 0 and 1.");
+        }
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * Adds a duration to the sketch.
+     *
+     * @param duration the duration in milliseconds
+     * @throws IllegalArgumentException If the duration is negative.
+     */
+    public void add(long duration) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Duration cannot be negative.");
+        }
+        if (duration == 0) {
+            zeroCount++;
+        } else {
+            int bucket = (int) Math.ceil(Math.log(duration) / logGamma);
+            grow(bucket, bucket);
+            counts[bucket - offset]++;
+        }
+        count++;
+        min = Math.min(min, duration);
+        max = Math.max(max, duration);
+    }
+
+    /**
+     * Adds the durations counted by another sketch to this one.
+     *
+     * @param other the sketch to merge into this one
+     * @throws IllegalArgumentException If the other sketch is null or has a different accuracy.
+     */
+    public void merge(DurationSketch other) {
+        if (other == null) {
+            throw new IllegalArgumentException("Sketch cannot be null.");
+        }
+        if (other.accuracy != accuracy) {
+            throw new IllegalArgumentException("Sketches must have the same accuracy.");
+        }
+        if (other.counts.length > 0) {
+            grow(other.offset, other.offset + other.counts.length - 1);
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[other.offset + i - offset] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of durations added.
+     * @return the number of durations
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimates the duration at the given quantile; 0.5 is the median.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated duration in milliseconds
+     * @throws IllegalArgumentException If the quantile is not between 0 and 1.
+     * @throws NoSuchElementException If no duration was added.
+     */
+    public long quantile(double quantile) {
+        if (!(quantile >= 0 && quantile <= 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1.");
+        }
+        if (count == 0) {
+            throw new NoSuchElementException("No durations were added.");
+        }
+        long rank = (long) (quantile * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        int i = 0;
+        while (seen + counts[i] <= rank) {
+            seen += counts[i++];
+        }
+        // The middle of the bucket in relative terms, at most accuracy away from its durations
+        double estimate = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+        return Math.max(min, Math.min(max, Math.round(estimate)));
+    }
+
+    // Makes room for the buckets from low to high
+    private void grow(int low, int high) {
+        if (counts.length == 0) {
+            counts = new long[high - low + 1];
+            offset = low;
+            return;
+        }
+        int end = offset + counts.length;
+        if (low >= offset && high < end) {
+            return;
+        }
+        int newOffset = Math.min(low, offset);
+        int newEnd = Math.max(high + 1, end);
+        long[] grown = new long[newEnd - newOffset];
+        System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+        counts = grown;
+        offset = newOffset;
+    }
+}
@@ -0,0 +1,386 @@
+ /**
+ * The IntervalIndex answers "who was logged in during this time range" and
+ * "who was logged in at this moment" queries over all sessions of a log, in
+ * O(log n + k) time for k sessions found (plus a log factor per block, see
+ * below), instead of scanning every session.
+ *
+ * A closed session overlaps [start, end] if it contains start or if it logged
+ * in after start and no later than end. The first case is a stabbing query,
+ * answered by a centered interval tree; the second is a range of the sessions
+ * sorted by login time, found by binary search. Active sessions are open-ended
+ * and overlap every range that ends at or after their login, so they are kept
+ * apart, ordered by login time.
+ *
+ * The index is kept up to date as a SessionListener. Closed sessions are
+ * collected and added in bulk before the next query, as a new block of the
+ * index; blocks of similar size are merged, so there are O(log n) of them.
+ * The sessions of a single terminal get an index of their own the first time
+ * that terminal is queried, which is then kept up to date as well.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class IntervalIndex implements SessionListener {
+
+    private Intervals all = new Intervals();
+    // Indexes of the terminals queried so far
+    private HashMap<Integer, Intervals> terminals = new HashMap<>();
+
+    /**
+     * Indexes a new active session.
+     *
+     * @param session the new active session
+     */
+    @Override
+    public synchronized void sessionOpened(Session session) {
+        all.open(session);
+        Intervals intervals = terminals.get(session.getTerminal());
+        if (intervals != null) {
+            intervals.open(session);
+        }
+    }
+
+    /**
+     * Replaces an active session by its closed version in the index.
+     *
+     * @param active the session as it was while active
+     * @param closed the same session with its logout record
+     */
+    @Override
+    public synchronized void sessionClosed(Session active, Session closed) {
+        all.close(active, closed);
+        Intervals intervals = terminals.get(active.getTerminal());
+        if (intervals != null) {
+            intervals.close(active, closed);
+        }
+    }
+
+    /**
+     * Returns the sessions that were active at any moment between the given
+     * times, both included. Active sessions count as lasting until now.
+     *
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the sessions overlapping the range, in no particular order
+     * @throws IllegalArgumentException If a time is null or start is after end.
+     */
+    public synchronized List<Session> during(Date start, Date end) {
+        if (start == null || end == null) {
+            throw new IllegalArgumentException("Time cannot be null.");
+        }
+        if (start.after(end)) {
+            throw new IllegalArgumentException("Start time cannot be after end time.");
+        }
+        ArrayList<Session> found = new ArrayList<>();
+        all.during(start.getTime(), end.getTime(), found);
+        return found;
+    }
+
+    /**
+     * Returns the sessions that were active at the given time.
+     *
+     * @param time the time to look up
+     * @return the sessions containing the time, in no particular order
+     * @throws IllegalArgumentException If the time is null.
+     */
+    public synchronized List<Session> at(Date time) {
+        if (time == null) {
+            throw new IllegalArgumentException("Time cannot be null.");
+        }
+        ArrayList<Session> found = new ArrayList<>();
+        all.during(time.getTime(), time.getTime(), found);
+        return found;
+    }
+
+    /**
+     * Returns the sessions on the given terminal that were active at the given time.
+     *
+     * @param time the time to look up
+     * @param terminal the terminal number
+     * @return the sessions on the terminal containing the time, in no particular order
+     * @throws IllegalArgumentException If the time is null or the terminal is not positive.
+     */
+    public synchronized List<Session> at(Date time, int terminal) {
+        if (time == null) {
+            throw new IllegalArgumentException("Time cannot be null.");
+        }
+        if (terminal <= 0) {
+            throw new IllegalArgumentException("Terminal number must be a positive integer.");
+        }
+        Intervals intervals = terminals.get(terminal);
+        if (intervals == null) {
+            MetricsRegistry.getGlobal().increment("index.terminal.miss");
+            intervals = all.select(terminal);
+            terminals.put(terminal, intervals);
+        } else {
+            MetricsRegistry.getGlobal().increment("index.terminal.hit");
+        }
+        ArrayList<Session> found = new ArrayList<>();
+        intervals.during(time.getTime(), time.getTime(), found);
+        return found;
+    }
+
+    /**
+     * Returns the number of sessions in the index.
+     * @return the number of sessions, active ones included
+     */
+    public synchronized int size() {
+        return all.size();
+    }
+
+    private static long start(Session session) {
+        return session.getLoginMillis();
+    }
+
+    private static long end(Session session) {
+        return session.getLogoutMillis();
+    }
+
+    /* The sessions of one set of terminals: active ones by login time, closed ones in blocks. */
+    private static class Intervals {
+        TreeMap<Long, ArrayList<Session>> active = new TreeMap<>();
+        int activeCount;
+        // Blocks of closed sessions, largest first
+        ArrayList<Block> blocks = new ArrayList<>();
+        ArrayList<Session> pending = new ArrayList<>();
+
+        void open(Session session) {
+            active.computeIfAbsent(start(session), k -> new ArrayList<>(1)).add(session);
+            activeCount++;
+        }
+
+        void close(Session active, Session closed) {
+            ArrayList<Session> sessions = this.active.get(start(active));
+            for (int i = sessions.size() - 1; i >= 0; i--) {
+                if (sessions.get(i) == active) {
+                    sessions.remove(i);
+                    break;
+                }
+            }
+            if (sessions.isEmpty()) {
+                this.active.remove(start(active));
+            }
+            activeCount--;
+            pending.add(closed);
+        }
+
+        // Returns new Intervals holding the sessions of one terminal
+        Intervals select(int terminal) {
+            Intervals selected = new Intervals();
+            for (ArrayList<Session> sessions : active.values()) {
+                for (Session session : sessions) {
+                    if (session.getTerminal() == terminal) {
+                        selected.open(session);
+                    }
+                }
+            }
+            for (Block block : blocks) {
+                for (Session session : block.sessions) {
+                    if (session.getTerminal() == terminal) {
+                        selected.pending.add(session);
+                    }
+                }
+            }
+            for (Session session : pending) {
+                if (session.getTerminal() == terminal) {
+                    selected.pending.add(session);
+                }
+            }
+            return selected;
+        }
+
+        int size() {
+            int size = activeCount + pending.size();
+            for (Block block : blocks) {
+                size += block.sessions.length;
+            }
+            return size;
+        }
+
+        void during(long start, long end, List<Session> found) {
+            flush();
+            for (Map.Entry<Long, ArrayList<Session>> entry : active.headMap(end, true).entrySet()) {
+                found.addAll(entry.getValue());
+            }
+            for (Block block : blocks) {
+                block.stab(start, found);
+                block.startingBetween(start, end, found);
+            }
+        }
+
+        // Turns the pending sessions into a block, merging blocks that are no longer much larger
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            int count = pending.size();
+            long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = start(pending.get(i));
+            }
+            Session[] sessions = new Session[count];
+            long[] starts = new long[count];
+            int i = 0;
+            for (int position : Sessionizer.timeOrder(times, count)) {
+                sessions[i] = pending.get(position);
+                starts[i++] = times[position];
+            }
+            pending.clear();
+            Block block = new Block(sessions, starts);
+            while (!blocks.isEmpty() && blocks.get(blocks.size() - 1).sessions.length <= 2 * block.sessions.length) {
+                block = merge(blocks.remove(blocks.size() - 1), block);
+            }
+            blocks.add(block);
+            MetricsRegistry.getGlobal().recordTime("index.flush", System.nanoTime() - start);
+        }
+
+        // Merges two blocks into one, the sessions of a first on equal login times
+        private static Block merge(Block a, Block b) {
+            int count = a.sessions.length + b.sessions.length;
+            Session[] sessions = new Session[count];
+            long[] starts = new long[count];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < count; k++) {
+                if (j == b.sessions.length || (i < a.sessions.length && a.starts[i] <= b.starts[j])) {
+                    sessions[k] = a.sessions[i];
+                    starts[k] = a.starts[i++];
+                } else {
+                    sessions[k] = b.sessions[j];
+                    starts[k] = b.starts[j++];
+                }
+            }
+            return new Block(sessions, starts);
+        }
+    }
+
+    /* A static set of closed sessions: sorted by login time, and as a centered interval tree. */
+    private static class Block {
+        final Session[] sessions;
+        final long[] starts;
+        final long[] ends;
+        final Node root;
+
+        // The sessions must be sorted by login time, the starts are their login times
+        Block(Session[] sessions, long[] starts) {
+            this.sessions = sessions;
+            this.starts = starts;
+            this.ends = new long[sessions.length];
+            int[] members = new int[sessions.length];
+            for (int i = 0; i < sessions.length; i++) {
+                ends[i] = end(sessions[i]);
+                members[i] = i;
+            }
+            this.root = build(members, members.length);
+        }
+
+        // Reports the sessions that contain the time
+        void stab(long time, List<Session> found) {
+            Node node = root;
+            while (node != null) {
+                if (time < node.center) {
+                    // Every session here ends at or after the center, so only the start matters
+                    for (int i = 0; i < node.byStart.length && node.starts[i] <= time; i++) {
+                        found.add(node.byStart[i]);
+                    }
+                    node = node.left;
+                } else if (time > node.center) {
+                    // Every session here starts at or before the center, so only the end matters
+                    for (int i = 0; i < node.byEnd.length && node.ends[i] >= time; i++) {
+                        found.add(node.byEnd[i]);
+                    }
+                    node = node.right;
+                } else {
+                    found.addAll(Arrays.asList(node.byStart));
+                    return;
+                }
+            }
+        }
+
+        // Reports the sessions that logged in after start and no later than end
+        void startingBetween(long start, long end, List<Session> found) {
+            int low = 0;
+            int high = starts.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= start) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < starts.length && starts[i] <= end; i++) {
+                found.add(sessions[i]);
+            }
+        }
+
+        // Builds the tree of the given positions, in ascending order, centered on the middle login
+        private Node build(int[] members, int count) {
+            if (count == 0) {
+                return null;
+            }
+            long center = starts[members[count / 2]];
+            int[] left = new int[count];
+            int[] here = new int[count];
+            int[] right = new int[count];
+            int leftCount = 0;
+            int hereCount = 0;
+            int rightCount = 0;
+            for (int i = 0; i < count; i++) {
+                int member = members[i];
+                if (ends[member] < center) {
+                    left[leftCount++] = member;
+                } else if (starts[member] > center) {
+                    right[rightCount++] = member;
+                } else {
+                    here[hereCount++] = member;
+                }
+            }
+            Node node = new Node(center, this, here, hereCount);
+            node.left = build(left, leftCount);
+            node.right = build(right, rightCount);
+            return node;
+        }
+    }
+
+    /* A node of the centered interval tree, holding the sessions that contain its center. */
+    private static class Node {
+        final long center;
+        // The same sessions by ascending login and by descending logout time
+        final Session[] byStart;
+        final long[] starts;
+        final Session[] byEnd;
+        final long[] ends;
+        Node left;
+        Node right;
+
+        Node(long center, Block block, int[] members, int count) {
+            this.center = center;
+            this.byStart = new Session[count];
+            this.starts = new long[count];
+            long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                byStart[i] = block.sessions[members[i]];
+                starts[i] = block.starts[members[i]];
+                times[i] = block.ends[members[i]];
+            }
+            this.byEnd = new Session[count];
+            this.ends = new long[count];
+            int[] order = Sessionizer.timeOrder(times, count);
+            for (int i = 0; i < count; i++) {
+                int position = order[count - 1 - i];
+                byEnd[i] = byStart[position];
+                ends[i] = times[position];
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+ /**
+ * The LogFollower keeps reading a log file that is still being written. Each
+ * poll reads only the bytes appended since the previous one, parses the
+ * complete lines among them and adds the records to a RecordStore. A line is
+ * parsed once its line terminator has been written; a partial last line is kept
+ * until the rest of it arrives, or taken as complete once the file has not
+ * grown for a whole interval, so a log whose writer never ends its last line
+ * is still read in full. If the file shrinks (it was truncated or replaced),
+ * the records already added no longer match it and cannot be taken back out
+ * of every store, so the follower reports it and stops; the records read so
+ * far can still be queried.
+ *
+ * Records are added while holding the lock of the store, so queries that
+ * synchronize on the store never see it half updated.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+public class LogFollower implements Runnable {
+
+    // Default time between two polls of the file, in milliseconds
+    public static final long DEFAULT_INTERVAL = 500;
+
+    private Path file;
+    private RecordStore records;
+    private MappedLogParser parser;
+    private Consumer<String> errors;
+    private long interval;
+    private volatile boolean running = true;
+
+    // Number of bytes of the file read so far, and the bytes of a partial last line
+    private long offset;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    // When the file last grew, in nanoseconds
+    private long grown = System.nanoTime();
+
+    /**
+     * Constructs a LogFollower that polls the file every DEFAULT_INTERVAL milliseconds.
+     *
+     * @param fileName the name of the log file to follow
+     * @param records the store the new records are added to
+     * @param usernames the dictionary the usernames are interned in
+     * @param errors receives an error message for every malformed line
+     */
+    public LogFollower(String fileName, RecordStore records, UsernameDictionary usernames,
+            Consumer<String> errors) {
+        this(fileName, records, usernames, errors, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructs a LogFollower that polls the file at the given interval.
+     *
+     * @param fileName the name of the log file to follow
+     * @param records the store the new records are added to
+     * @param usernames the dictionary the usernames are interned in
+     * @param errors receives an error message for every malformed line
+     * @param interval the time between two polls, in milliseconds
+     * @throws IllegalArgumentException If an argument is null or the interval is not positive.
+     */
+    public LogFollower(String fileName, RecordStore records, UsernameDictionary usernames,
+            Consumer<String> errors, long interval) {
+        if (fileName == null || records == null || usernames == null || errors == null) {
+            throw new IllegalArgumentException("Arguments cannot be null.");
+        }
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be a positive number.");
+        }
+        this.file = Paths.get(fileName);
+        this.records = records;
+        this.parser = new MappedLogParser(usernames);
+        this.errors = errors;
+        this.interval = interval;
+    }
+
+    /**
+     * Reads the lines appended to the file since the last poll and adds their
+     * records to the store. A partial last line is added once the file has not
+     * grown for an interval. Does nothing once the follower was stopped.
+     *
+     * @return the number of records added
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public synchronized int poll() throws IOException {
+        if (!running) {
+            return 0;
+        }
+        ArrayList<Record> batch = new ArrayList<>();
+        int added = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                errors.accept("Error: " + file + " was truncated or replaced, no longer following it.");
+                stop();
+                return 0;
+            }
+            if (offset < size) {
+                grown = System.nanoTime();
+            }
+            while (offset < size) {
+                if (!buffer.hasRemaining()) {
+                    // A single line fills the buffer
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                int read = channel.read(buffer, offset);
+                if (read <= 0) {
+                    break;
+                }
+                offset += read;
+
+                buffer.flip();
+                int parsed = parser.parse(buffer, 0, buffer.limit(), false, batch::add, errors);
+                buffer.position(parsed);
+                buffer.compact();
+
+                // Add the records buffer by buffer, so queries are not held up by a large backlog
+                add(batch);
+                added += batch.size();
+                batch.clear();
+            }
+        }
+        if (buffer.position() > 0 && System.nanoTime() - grown >= interval * 1_000_000) {
+            // The writer has been idle with the last line unterminated, take it as complete
+            buffer.flip();
+            parser.parse(buffer, 0, buffer.limit(), true, batch::add, errors);
+            buffer.clear();
+            add(batch);
+            added += batch.size();
+        }
+        return added;
+    }
+
+    // Adds a batch of records while holding the lock of the store
+    private void add(ArrayList<Record> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (records) {
+            for (Record record : batch) {
+                records.add(record);
+            }
+        }
+    }
+
+    /**
+     * Polls the file until stop is called or the file shrinks. Read errors are
+     * reported and the next poll tries again.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                poll();
+            } catch (IOException e) {
+                errors.accept("Error: Unable to read the file: " + file + " (" + e.getMessage() + ")");
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops following the file after the current poll.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Returns the number of bytes of the file that have been read so far.
+     * @return the current offset in the file
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,354 @@
+ /**
+ * The LogSnapshot class writes the parsed contents of a log file to a compact
+ * binary file and reads them back through memory-mapped buffers, so a restart
+ * does not need to parse the text log again. A snapshot remembers the size and
+ * modification time of the log it was made from and is ignored once the log
+ * changes.
+ *
+ * The file holds a header, the records as columns (terminals, times, username
+ * ids and a bit set of the logins) and the username dictionary. Both writing
+ * and reading stream the columns, so neither holds the records of the log at
+ * once. The sessions are not stored: the records are kept in list order, and
+ * pairing them in that order gives the sessions the store had.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+public class LogSnapshot {
+
+    private static final int MAGIC = 0x4C535331; // "LSS1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 36;
+    // Largest region of the snapshot that is mapped at once
+    private static final int MAX_WINDOW = 1 << 30;
+
+    private Path snapshot;
+    private Path source;
+
+    /**
+     * Constructs a LogSnapshot for the given log file, stored next to it with
+     * the extension ".snapshot".
+     *
+     * @param logFileName the name of the log file
+     */
+    public LogSnapshot(String logFileName) {
+        this(logFileName, logFileName + ".snapshot");
+    }
+
+    /**
+     * Constructs a LogSnapshot for the given log file, stored in the given file.
+     *
+     * @param logFileName the name of the log file
+     * @param snapshotFileName the name of the snapshot file
+     * @throws IllegalArgumentException If either name is null.
+     */
+    public LogSnapshot(String logFileName, String snapshotFileName) {
+        if (logFileName == null || snapshotFileName == null) {
+            throw new IllegalArgumentException("File names cannot be null.");
+        }
+        this.source = Paths.get(logFileName);
+        this.snapshot = Paths.get(snapshotFileName);
+    }
+
+    /**
+     * Returns whether a snapshot exists and was made from the current version
+     * of the log file.
+     *
+     * @return true if the snapshot can be read
+     */
+    public boolean isValid() {
+        if (!Files.isRegularFile(snapshot)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            return readHeader(new Input(channel, 0)) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the records of the store to the snapshot file in a single pass,
+     * in the order the store holds them. The file is written under a temporary
+     * name and then moved in place, so a failed write never leaves a truncated
+     * snapshot behind.
+     *
+     * @param records the records parsed from the log file
+     * @throws IOException If the log file cannot be examined or the snapshot cannot be written.
+     */
+    public void write(RecordStore records) throws IOException {
+        long sourceSize = Files.size(source);
+        long sourceModified = Files.getLastModifiedTime(source).toMillis();
+        int count = records.size();
+        int loginWordCount = (count + Long.SIZE - 1) / Long.SIZE;
+
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Every column has a known size, so each one is written straight to its place in the file
+            Output terminals = new Output(channel, HEADER_BYTES);
+            Output times = new Output(channel, terminals.position + (long) count * Integer.BYTES);
+            Output userIds = new Output(channel, times.position + (long) count * Long.BYTES);
+            Output logins = new Output(channel, userIds.position + (long) count * Integer.BYTES);
+            Output names = new Output(channel, logins.position + (long) loginWordCount * Long.BYTES);
+
+            // Number the usernames in the order they first appear
+            int[] localIds = new int[UsernameDictionary.getGlobal().size()]; // local id + 1 of each global id
+            int nameCount = 0;
+            long loginWord = 0;
+            for (int i = 0; i < count; i++) {
+                Record record = records.get(i);
+                terminals.putInt(record.getTerminal());
+                times.putLong(record.getTimeMillis());
+                int globalId = record.getUserId();
+                if (globalId >= localIds.length) {
+                    localIds = Arrays.copyOf(localIds, Math.max(globalId + 1, localIds.length * 2));
+                }
+                if (localIds[globalId] == 0) {
+                    byte[] name = record.getUsername().getBytes(StandardCharsets.UTF_8);
+                    names.putInt(name.length);
+                    names.put(name);
+                    localIds[globalId] = ++nameCount;
+                }
+                userIds.putInt(localIds[globalId] - 1);
+                if (record.isLogin()) {
+                    loginWord |= 1L << (i % Long.SIZE);
+                }
+                if (i % Long.SIZE == Long.SIZE - 1 || i == count - 1) {
+                    logins.putLong(loginWord);
+                    loginWord = 0;
+                }
+            }
+            terminals.flush();
+            times.flush();
+            userIds.flush();
+            logins.flush();
+            names.flush();
+
+            Output header = new Output(channel, 0);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(sourceSize);
+            header.putLong(sourceModified);
+            header.putInt(nameCount);
+            header.putInt(count);
+            header.putInt(loginWordCount);
+            header.flush();
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the snapshot back into a RecordList, pairing its sessions in list
+     * order.
+     *
+     * @return the records and sessions of the log file
+     * @throws IOException If the snapshot cannot be read or is no longer valid.
+     */
+    public RecordList readRecordList() throws IOException {
+        ArrayList<Record> records = new ArrayList<>();
+        readRows(UsernameDictionary.getGlobal()::intern,
+                (terminal, login, userId, time) -> records.add(new Record(terminal, login, userId, time)));
+        return RecordList.restore(records);
+    }
+
+    /**
+     * Reads the records of the snapshot one at a time, in the order they were
+     * written, without holding them all. Used for the stores that pair their
+     * own sessions.
+     *
+     * @param records receives every record of the snapshot
+     * @throws IOException If the snapshot cannot be read or is no longer valid.
+     */
+    public void readRecords(Consumer<Record> records) throws IOException {
+        readRows(UsernameDictionary.getGlobal()::intern,
+                (terminal, login, userId, time) -> records.accept(new Record(terminal, login, userId, time)));
+    }
+
+    /**
+     * Reads the records of the snapshot into a ColumnarRecordList without
+     * creating a Record object per record.
+     *
+     * @param usernames the dictionary the list encodes usernames with
+     * @return the records of the log file
+     * @throws IOException If the snapshot cannot be read or is no longer valid.
+     */
+    public ColumnarRecordList readColumnarRecordList(UsernameDictionary usernames) throws IOException {
+        ColumnarRecordList list = new ColumnarRecordList(usernames);
+        readRows(usernames::intern, list::add);
+        return list;
+    }
+
+    // Reads the records in order, with the usernames interned by the given function
+    private void readRows(ToIntFunction<String> intern, Row row) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            Header header = readHeader(new Input(channel, 0));
+            if (header == null) {
+                throw new IOException("Snapshot " + snapshot + " is out of date or not a snapshot file");
+            }
+            int count = header.recordCount;
+            Input terminals = new Input(channel, HEADER_BYTES);
+            Input times = new Input(channel, terminals.position() + (long) count * Integer.BYTES);
+            Input userIds = new Input(channel, times.position() + (long) count * Long.BYTES);
+            Input logins = new Input(channel, userIds.position() + (long) count * Integer.BYTES);
+            Input names = new Input(channel, logins.position() + (long) header.loginWordCount * Long.BYTES);
+
+            // Translate the ids of the snapshot to ids of the dictionary
+            int[] ids = new int[header.usernameCount];
+            for (int id = 0; id < ids.length; id++) {
+                byte[] name = new byte[names.readInt()];
+                names.readBytes(name);
+                ids[id] = intern.applyAsInt(new String(name, StandardCharsets.UTF_8));
+            }
+            long loginWord = 0;
+            for (int i = 0; i < count; i++) {
+                if (i % Long.SIZE == 0) {
+                    loginWord = logins.readLong();
+                }
+                boolean login = ((loginWord >>> (i % Long.SIZE)) & 1) != 0;
+                row.accept(terminals.readInt(), login, ids[userIds.readInt()], times.readLong());
+            }
+        }
+    }
+
+    // Reads the header, or returns null if the file is not a snapshot of the current log
+    private Header readHeader(Input in) throws IOException {
+        if (in.size() < HEADER_BYTES || in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+        }
+        if (in.readLong() != Files.size(source)
+                || in.readLong() != Files.getLastModifiedTime(source).toMillis()) {
+            return null;
+        }
+        Header header = new Header();
+        header.usernameCount = in.readInt();
+        header.recordCount = in.readInt();
+        header.loginWordCount = in.readInt();
+        return header;
+    }
+
+    /* The counts stored in the header of a snapshot. */
+    private static class Header {
+        int usernameCount;
+        int recordCount;
+        int loginWordCount;
+    }
+
+    /* Receives the values of one record read from a snapshot. */
+    private interface Row {
+        void accept(int terminal, boolean login, int userId, long time);
+    }
+
+    /* Buffered writer of one region of a snapshot file, starting at a given position. */
+    private static class Output {
+        FileChannel channel;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position; // where the buffered bytes go
+
+        Output(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            for (int done = 0; done < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(bytes.length - done, buffer.remaining());
+                buffer.put(bytes, done, length);
+                done += length;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /* Sequential reader over a snapshot file that maps one window of it at a time. */
+    private static class Input {
+        FileChannel channel;
+        MappedByteBuffer window;
+        long windowStart;
+
+        Input(FileChannel channel, long position) throws IOException {
+            this.channel = channel;
+            map(position);
+        }
+
+        long position() {
+            return windowStart + window.position();
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        int readInt() throws IOException {
+            ensure(Integer.BYTES);
+            return window.getInt();
+        }
+
+        long readLong() throws IOException {
+            ensure(Long.BYTES);
+            return window.getLong();
+        }
+
+        void readBytes(byte[] target) throws IOException {
+            ensure(target.length);
+            window.get(target);
+        }
+
+        // Makes sure the next bytes are in the mapped window, moving the window if needed
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (position + bytes > channel.size()) {
+                throw new IOException("Snapshot file is truncated");
+            }
+            map(position);
+        }
+
+        private void map(long position) throws IOException {
+            long length = Math.min(MAX_WINDOW, channel.size() - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            windowStart = position;
+        }
+    }
+}
@@ -7,13 +7,55 @@
  */
 package project3;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import javax.management.JMException;
 public class LoginStats {
-    private RecordList records = new RecordList();
+    private UsernameDictionary usernames;
+    private RecordStore records = new RecordList();
+    private LogFollower follower;
+    private IntervalIndex intervals;
+    private SessionStats stats;
+    private SessionCache cache;
+    // Query results go through one buffer, flushed after each command
+    private PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+    private SessionFormatter formatter = SessionFormatter.getDefault();
+    private StringBuilder line = new StringBuilder(256);
+    private MetricsRegistry metrics = MetricsRegistry.getGlobal();
+    // Default constructor to create a LoginStats object that parses usernames into the global dictionary
+    public LoginStats() {
+        this(UsernameDictionary.getGlobal());
+    }
+    /**
+     * Constructs a LoginStats object whose log readers intern usernames in
+     * the given dictionary. The records still refer to users by their ids in
+     * the global dictionary, which every distinct username is added to once.
+     * Reading the log with readLogFile always uses the global dictionary.
+     *
+     * @param usernames the dictionary the log readers intern usernames in
+     * @throws IllegalArgumentException If the dictionary is null.
+     */
+    public LoginStats(UsernameDictionary usernames) {
+        if (usernames == null) {
+            throw new IllegalArgumentException("Username dictionary cannot be null.");
+        }
+        this.usernames = usernames;
+    }
     /**
      * Main method that drives the program. It handles opening the log file,
      * reading the data, and interacting with the user.
@@ -23,18 +65,137 @@ public class LoginStats {
     public static void main(String[] args) {
         LoginStats loginStats = new LoginStats();
 
+        // Separate the options from the file name
+        boolean mapped = false;
+        boolean parallel = false;
+        boolean snapshot = false;
+        boolean follow = false;
+        boolean storageChosen = false;
+        boolean jmx = false;
+        String batchFile = null;
+        String spillDirectory = null;
+        String serveAddress = null;
+        boolean offHeap = false;
+        String offHeapFile = null;
+        ArrayList<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--batch") && i + 1 < args.length) {
+                batchFile = args[++i];
+            } else if (arg.equals("--serve") && i + 1 < args.length) {
+                serveAddress = args[++i];
+            } else if (arg.equals("--spill") && i + 1 < args.length) {
+                spillDirectory = args[++i];
+                storageChosen = true;
+            } else if (arg.equals("--offheap-file") && i + 1 < args.length) {
+                offHeapFile = args[++i];
+                offHeap = true;
+                storageChosen = true;
+            } else if (arg.equals("--offheap")) {
+                offHeap = true;
+                storageChosen = true;
+            } else if (arg.equals("--mmap")) {
+                mapped = true;
+            } else if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.equals("--follow")) {
+                follow = true;
+            } else if (arg.equals("--snapshot")) {
+                snapshot = true;
+            } else if (arg.equals("--jmx")) {
+                jmx = true;
+            } else if (arg.equals("--columnar")) {
+                loginStats.useColumnarStorage();
+                storageChosen = true;
+            } else if (arg.equals("--concurrent")) {
+                loginStats.useConcurrentStorage();
+                storageChosen = true;
+            } else if (arg.startsWith("--")) {
+                System.err.println("Usage Error: unknown option: " + arg);
+                return;
+            } else {
+                arguments.add(arg);
+            }
+        }
+
         // Ensure the program is run with a valid command-line argument
-        if (args.length != 1) {
+        if (arguments.isEmpty()) {
             System.err.println("Usage Error: the program expects a file name as an argument.");
             return;
         }
 
-        String fileName = args[0];
+        // Several files or file name patterns are read as the segments of one log
+        ArrayList<String> fileNames = new ArrayList<>();
+        try {
+            for (String argument : arguments) {
+                fileNames.addAll(MergingLogLoader.expand(argument));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Usage Error: " + e.getMessage());
+            return;
+        }
+        if (fileNames.size() > 1 && (follow || snapshot)) {
+            System.err.println("Usage Error: --follow and --snapshot take a single log file.");
+            return;
+        }
+        if (serveAddress != null && batchFile != null) {
+            System.err.println("Usage Error: --serve and --batch cannot be combined.");
+            return;
+        }
+        String fileName = String.join(" ", fileNames);
+
+        // Expose the metrics to JMX tools for the life of the program
+        if (jmx) {
+            try {
+                MetricsRegistry.registerMBean();
+            } catch (JMException e) {
+                System.err.println("Error: Unable to register the metrics MBean (" + e.getMessage() + ")");
+            }
+        }
+
+        // Queries should not wait for the follower unless another storage was asked for
+        if (follow && !storageChosen) {
+            loginStats.useConcurrentStorage();
+        }
 
         // Try to read the log file and process it
         try {
-            loginStats.readLogFile(fileName);
-            loginStats.handleUserQueries();
+            if (spillDirectory != null) {
+                loginStats.useSpilledStorage(new File(spillDirectory));
+            } else if (offHeap) {
+                loginStats.useOffHeapStorage((offHeapFile != null) ? new File(offHeapFile) : null);
+            }
+            // Keep the statistics as the records are loaded instead of on the first query
+            loginStats.getStats();
+            boolean merged = fileNames.size() > 1 || MergingLogLoader.isCompressed(fileName);
+            if (follow && merged) {
+                System.err.println("Usage Error: --follow cannot follow a compressed file.");
+                return;
+            }
+            if (follow) {
+                loginStats.followLogFile(fileName);
+            } else if (!snapshot || !loginStats.readSnapshot(fileName)) {
+                if (merged) {
+                    loginStats.readLogFiles(fileNames);
+                } else if (parallel) {
+                    loginStats.readLogFileParallel(fileName);
+                } else if (mapped) {
+                    loginStats.readMappedLogFile(fileName);
+                } else {
+                    loginStats.readLogFile(fileName);
+                }
+                if (snapshot) {
+                    loginStats.writeSnapshot(fileName);
+                }
+            }
+            if (batchFile != null) {
+                loginStats.runBatchQueries(batchFile);
+            } else if (serveAddress != null) {
+                loginStats.serveQueries(serveAddress);
+            } else {
+                loginStats.handleUserQueries();
+            }
+            loginStats.close();
         } catch (IOException e) {
             System.err.println("Error: Unable to open or read the file: " + fileName);
         } catch (IllegalArgumentException e) {
@@ -42,6 +203,61 @@ public class LoginStats {
         } catch (Exception e) {
             System.err.println("An unexpected error occurred: " + e.getMessage());
         }
+    }
+    /**
+     * Returns the store holding the records read so far.
+     * @return the records
+     */
+    public RecordStore getRecords() {
+        return records;
+    }
+    /**
+     * Switches to a ColumnarRecordList, which keeps the records in primitive
+     * arrays and uses far less heap than a RecordList on large logs.
+     * Must be called before any log file is read.
+     */
+    public void useColumnarStorage() {
+        records = new ColumnarRecordList(usernames);
+    }
+    /**
+     * Switches to a ConcurrentRecordList, which can be queried without locking
+     * while records are being added to it. Must be called before any log file
+     * is read.
+     */
+    public void useConcurrentStorage() {
+        records = new ConcurrentRecordList();
+    }
+    /**
+     * Switches to a SpilledRecordStore, which keeps the records in files in
+     * the given directory and only the usernames on the heap, for logs too
+     * large to fit in memory. Must be called before any log file is read.
+     *
+     * @param directory where the spill files are written
+     * @throws IOException If the spill files cannot be created.
+     */
+    public void useSpilledStorage(File directory) throws IOException {
+        records = new SpilledRecordStore(directory, usernames);
+    }
+    /**
+     * Switches to an OffHeapRecordStore, which keeps the records outside the
+     * heap, so that garbage collection does not slow down with the size of the
+     * log. Must be called before any log file is read.
+     *
+     * @param file the file to map the records from, or null to keep them in direct memory
+     * @throws IOException If the file cannot be created.
+     */
+    public void useOffHeapStorage(File file) throws IOException {
+        records = (file != null) ? new OffHeapRecordStore(file) : new OffHeapRecordStore();
+    }
+    /**
+     * Releases the files of the record store, if it keeps any.
+     *
+     * @throws IOException If a file cannot be closed.
+     */
+    public void close() throws IOException {
+        if (records instanceof Closeable) {
+            ((Closeable) records).close();
+        }
     }
         /**
      * Reads the log file, parses each line into Record objects, and stores them
@@ -51,6 +267,8 @@ public class LoginStats {
      * @throws IOException If an error occurs while reading the file.
      */
     public void readLogFile(String fileName) throws IOException {
+        long start = System.nanoTime();
+        long parsed = 0;
         BufferedReader reader = new BufferedReader(new FileReader(fileName));
         String line;
         while ((line = reader.readLine()) != null) {
@@ -64,18 +282,174 @@ public class LoginStats {
                 int terminal = Integer.parseInt(parts[0].replace("-", ""));
                 boolean isLogin = !parts[0].startsWith("-");
                 String username = parts[2];
-                Date time = new Date(Long.parseLong(parts[1]));
+                long time = Long.parseLong(parts[1]);
 
                 // Create a Record object and add it to the list
                 Record record = new Record(terminal, isLogin, username, time);
                 records.add(record);
+                parsed++;
 
             } catch (IllegalArgumentException e) {
+                metrics.rejected(e);
                 System.err.println("Error: Failed to parse record: " + line + " (" + e.getMessage() + ")");
             }
         }
         reader.close();
-    
+        metrics.add("ingest.records", parsed);
+        metrics.recordTime("ingest", System.nanoTime() - start);
+    }
+    /**
+     * Reads the log file through a memory-mapped buffer and stores its records
+     * in the RecordList. The file is scanned byte by byte instead of line by
+     * line, and usernames are interned, which makes loading large logs faster
+     * and lighter on the heap than readLogFile.
+     *
+     * @param fileName The name of the log file to read.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void readMappedLogFile(String fileName) throws IOException {
+        long start = System.nanoTime();
+        MappedLogParser parser = new MappedLogParser(usernames);
+        parser.parse(fileName, records::add);
+        metrics.recordTime("ingest", System.nanoTime() - start);
+    }
+    /**
+     * Reads the log file on one thread per available processor and stores its
+     * records in the RecordList. The file is parsed in chunks that are merged
+     * in file order, so the records and the error messages for malformed lines
+     * come out in the same order as with readLogFile.
+     *
+     * @param fileName The name of the log file to read.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void readLogFileParallel(String fileName) throws IOException {
+        long start = System.nanoTime();
+        ParallelLogLoader loader = new ParallelLogLoader(usernames);
+        loader.load(fileName, records::add, System.err::println);
+        metrics.recordTime("ingest", System.nanoTime() - start);
+    }
+    /**
+     * Reads several log files as one log, such as the segments of a rotated
+     * log. The files may be gzip-compressed; each one is decoded on its own
+     * thread and their records are merged by time, so sessions that span two
+     * segments are paired.
+     *
+     * @param fileNames The names of the log files.
+     * @throws IOException If an error occurs while reading a file.
+     */
+    public void readLogFiles(List<String> fileNames) throws IOException {
+        long start = System.nanoTime();
+        MergingLogLoader loader = new MergingLogLoader(usernames);
+        loader.load(fileNames, records::add, System.err::println);
+        metrics.recordTime("ingest", System.nanoTime() - start);
+    }
+    /**
+     * Reads the log file and keeps following it: a background thread adds the
+     * records of lines appended to the file while queries are being answered.
+     *
+     * @param fileName The name of the log file to follow.
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void followLogFile(String fileName) throws IOException {
+        long start = System.nanoTime();
+        follower = new LogFollower(fileName, records, usernames, System.err::println);
+        follower.poll();
+        metrics.recordTime("ingest", System.nanoTime() - start);
+        Thread thread = new Thread(follower, "log-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    /**
+     * Loads the records from the snapshot of the log file, if there is one that
+     * was made from the current version of the file.
+     *
+     * @param fileName The name of the log file.
+     * @return true if the records were loaded from the snapshot, false if the
+     *         log file has to be read instead.
+     */
+    public boolean readSnapshot(String fileName) {
+        LogSnapshot snapshot = new LogSnapshot(fileName);
+        if (!snapshot.isValid()) {
+            return false;
+        }
+        try {
+            RecordStore previous = records;
+            if (records instanceof ColumnarRecordList) {
+                records = snapshot.readColumnarRecordList(usernames);
+            } else if (records instanceof ConcurrentRecordList || records instanceof SpilledRecordStore
+                    || records instanceof OffHeapRecordStore) {
+                // These stores pair their own sessions
+                snapshot.readRecords(records::add);
+            } else {
+                records = snapshot.readRecordList();
+            }
+            // The statistics and answers were kept for the store that was replaced
+            if (records != previous) {
+                cache = null;
+                if (stats != null) {
+                    stats = null;
+                    getStats();
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error: Unable to read the snapshot of " + fileName + " (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+    /**
+     * Writes the records that were read from the log file to its snapshot, so
+     * the next run can load them without parsing the file. A failure is
+     * reported but does not stop the program.
+     *
+     * @param fileName The name of the log file.
+     */
+    public void writeSnapshot(String fileName) {
+        try {
+            new LogSnapshot(fileName).write(records);
+        } catch (IOException e) {
+            System.err.println("Error: Unable to write the snapshot of " + fileName + " (" + e.getMessage() + ")");
+        }
+    }
+    /**
+     * Answers all the queries of a file (or of the standard input if the file
+     * name is "-") in one go, writing the results in query order through a
+     * buffered writer.
+     *
+     * @param queryFileName The name of the file with one query per line, or "-".
+     * @throws IOException If an error occurs while reading the queries.
+     */
+    public void runBatchQueries(String queryFileName) throws IOException {
+        Reader input = queryFileName.equals("-")
+                ? new InputStreamReader(System.in)
+                : new FileReader(queryFileName);
+        try {
+            Writer output = new OutputStreamWriter(System.out);
+            new BatchQueryRunner(getCache()).run(input, output, System.err);
+        } finally {
+            input.close();
+        }
+    }
+    /**
+     * Answers first and last queries from clients connecting to the given
+     * address, a local port number or a Unix domain socket path, until the
+     * program is stopped.
+     *
+     * @param address the port or socket path to listen on
+     * @throws IOException If the server cannot listen on the address.
+     */
+    public void serveQueries(String address) throws IOException {
+        QueryServer server = new QueryServer(getCache(), address);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Exiting anyway
+            }
+        }));
+        out.println("Serving first and last queries on " + server.getAddress());
+        out.flush();
+        server.serve();
     }
     /**
      * Handles user input in a loop, allowing the user to query the first or last
@@ -83,62 +457,319 @@ public class LoginStats {
      */
     public void handleUserQueries() {
         Scanner scanner = new Scanner(System.in);
-        System.out.println("Welcome to Login Stats!\n");
-        System.out.println("Available commands:");
-        System.out.println("  first USERNAME   - retrieves first login session for the USER");
-        System.out.println("  last USERNAME    - retrieves last login session for the USER");
-        System.out.println("  quit             - terminates this program\n");
+        out.println("Welcome to Login Stats!\n");
+        out.println("Available commands:");
+        out.println("  first USERNAME   - retrieves first login session for the USER");
+        out.println("  last USERNAME    - retrieves last login session for the USER");
+        out.println("  during START END - retrieves the sessions active between two times");
+        out.println("  at TIME [terminal N] - retrieves the sessions active at a time");
+        out.println("  stats [USERNAME] - shows statistics of all sessions or of the USER");
+        out.println("  top users K      - lists the K users with the most logged-in time");
+        out.println("  top terminals K  - lists the K terminals with the most sessions");
+        out.println("  metrics          - shows counters and timings of loading and queries");
+        out.println("  quit             - terminates this program\n");
+        out.flush();
         
 
         while (true) {
             String input = scanner.nextLine().trim();
             if (input.equalsIgnoreCase("quit")) {
-                System.out.println("Exiting the program.");
+                out.println("Exiting the program.");
+                out.flush();
+                if (follower != null) {
+                    follower.stop();
+                }
                 break;
             }
 
             // Process the user query
+            long start = System.nanoTime();
             try {
                 processQuery(input);
             } catch (IllegalArgumentException e) {
+                metrics.increment("query.errors");
                 System.err.println("Error: " + e.getMessage());
             } catch (NoSuchElementException e) {
+                metrics.increment("query.errors");
                 System.err.println("Error: " + e.getMessage());
             } catch (Exception e) {
+                metrics.increment("query.errors");
                 System.err.println("An unexpected error occurred: " + e.getMessage());
             }
+            out.flush();
+            metrics.recordTime("query." + commandName(input), System.nanoTime() - start);
         }
 
         scanner.close();
     }
     /**
-     * Processes the user query by extracting the command and username.
-     * Valid commands are "first USERNAME" and "last USERNAME".
+     * Processes the user query by extracting the command and its arguments.
+     * Valid commands are "first USERNAME", "last USERNAME", "during START END",
+     * "at TIME [terminal N]", where the times are in milliseconds since the
+     * epoch like in the log, "stats [USERNAME]", "top users K",
+     * "top terminals K" and "metrics".
      * 
      * @param input The user input string.
      * @throws IllegalArgumentException If the command or input is invalid.
-     * @throws NoSuchElementException If no session is found for the specified user.
+     * @throws NoSuchElementException If no session is found for the query.
      */
     private void processQuery(String input) {
         String[] parts = input.split(" ");
+        String command = parts[0];
+        if (command.equalsIgnoreCase("during") && parts.length == 3) {
+            Date start = parseTime(parts[1]);
+            Date end = parseTime(parts[2]);
+            printSessions(getIntervals().during(start, end), "between " + parts[1] + " and " + parts[2]);
+            return;
+        }
+        if (command.equalsIgnoreCase("at") && (parts.length == 2 || parts.length == 4)) {
+            Date time = parseTime(parts[1]);
+            if (parts.length == 2) {
+                printSessions(getIntervals().at(time), "at " + parts[1]);
+                return;
+            }
+            if (!parts[2].equalsIgnoreCase("terminal")) {
+                throw new IllegalArgumentException("This is not a valid query. Try again.");
+            }
+            int terminal = parseTerminal(parts[3]);
+            printSessions(getIntervals().at(time, terminal), "at " + parts[1] + " on terminal " + terminal);
+            return;
+        }
+        if (command.equalsIgnoreCase("stats") && parts.length <= 2) {
+            out.println((parts.length == 1) ? getStats().describe() : getStats().describe(parts[1]));
+            out.println("");
+            return;
+        }
+        if (command.equalsIgnoreCase("metrics") && parts.length == 1) {
+            out.println(metrics.describe());
+            out.println("");
+            return;
+        }
+        if (command.equalsIgnoreCase("top") && parts.length == 3) {
+            printTop(parts[1], parseCount(parts[2]));
+            return;
+        }
         if (parts.length != 2) {
             throw new IllegalArgumentException("This is not a valid query. Try again.");
         }
 
-        String command = parts[0];
         String username = parts[1];
 
         // Process "first" or "last" queries
         if (command.equalsIgnoreCase("first")) {
-            Session firstSession = records.getFirstSession(username);
-            System.out.println(firstSession);
-            System.out.println("");
+            Session firstSession = findSession(true, username);
+            printSession(firstSession);
         } else if (command.equalsIgnoreCase("last")) {
-            Session lastSession = records.getLastSession(username);
-            System.out.println(lastSession);
-            System.out.println("");
+            Session lastSession = findSession(false, username);
+            printSession(lastSession);
         } else {
             throw new IllegalArgumentException("This is not a valid query. Try again.");
         }
     }
+    /**
+     * Returns the name query latencies are timed under: the command of the
+     * input, or "invalid" for anything that is not a command.
+     *
+     * @param input The user input string.
+     * @return the command name
+     */
+    private static String commandName(String input) {
+        String command = input.split(" ", 2)[0].toLowerCase();
+        switch (command) {
+            case "first":
+            case "last":
+            case "during":
+            case "at":
+            case "stats":
+            case "top":
+            case "metrics":
+                return command;
+            default:
+                return "invalid";
+        }
+    }
+    /**
+     * Prints sessions found by a time query in login order, each followed by
+     * an empty line.
+     *
+     * @param sessions the sessions found
+     * @param description describes the query in the error message
+     * @throws NoSuchElementException If no session was found.
+     */
+    private void printSessions(List<Session> sessions, String description) {
+        if (sessions.isEmpty()) {
+            throw new NoSuchElementException("No matching session found " + description);
+        }
+        sessions.sort(Comparator.comparingLong(Session::getLoginMillis)
+                .thenComparing(Session::getTerminal)
+                .thenComparing(Session::getUsername));
+        line.setLength(0);
+        for (Session session : sessions) {
+            formatter.append(line, session).append("\n\n");
+        }
+        out.append(line);
+    }
+    /**
+     * Prints a session followed by an empty line.
+     *
+     * @param session the session to print
+     */
+    private void printSession(Session session) {
+        line.setLength(0);
+        formatter.append(line, session);
+        out.println(line);
+        out.println("");
+    }
+    /**
+     * Prints the users with the most logged-in time or the terminals with the
+     * most sessions, followed by an empty line.
+     *
+     * @param what "users" or "terminals"
+     * @param k the number of entries to print
+     * @throws IllegalArgumentException If what is neither "users" nor "terminals".
+     * @throws NoSuchElementException If there are no sessions.
+     */
+    private void printTop(String what, int k) {
+        StringBuilder sb = new StringBuilder();
+        int rank = 1;
+        if (what.equalsIgnoreCase("users")) {
+            for (Map.Entry<String, Long> entry : getStats().topUsers(k)) {
+                sb.append(rank++).append(". ").append(entry.getKey()).append(", total time ");
+                SessionFormatter.appendDuration(sb, entry.getValue()).append("\n");
+            }
+        } else if (what.equalsIgnoreCase("terminals")) {
+            for (Map.Entry<Integer, Integer> entry : getStats().topTerminals(k)) {
+                sb.append(rank++).append(". terminal ").append(entry.getKey()).append(", ")
+                        .append(entry.getValue()).append(" sessions\n");
+            }
+        } else {
+            throw new IllegalArgumentException("This is not a valid query. Try again.");
+        }
+        if (rank == 1) {
+            throw new NoSuchElementException("No sessions found.");
+        }
+        out.println(sb);
+    }
+    /**
+     * Returns the index of the sessions by time, building it on first use.
+     * Once built, it is kept up to date with the records added later.
+     *
+     * @return the interval index of the sessions
+     */
+    private IntervalIndex getIntervals() {
+        if (intervals == null) {
+            IntervalIndex index = new IntervalIndex();
+            addSessionListener(index);
+            intervals = index;
+        }
+        return intervals;
+    }
+    /**
+     * Returns the cache of first and last answers, starting it on first use.
+     * Once started, it drops the answers of every user records are added for.
+     * It only listens for the records appended, so starting it neither replays
+     * nor pairs the records already loaded.
+     *
+     * @return the session cache
+     */
+    private SessionCache getCache() {
+        if (cache == null) {
+            cache = SessionCache.attach(records);
+        }
+        return cache;
+    }
+    /**
+     * Returns the running statistics of the sessions, starting them on first
+     * use. Once started, they are kept up to date with the records added later.
+     * The program starts them before the log is read, so they are fed as the
+     * records are loaded instead of pairing every record again on the first
+     * query.
+     *
+     * @return the session statistics
+     */
+    private SessionStats getStats() {
+        if (stats == null) {
+            SessionStats sessionStats = new SessionStats();
+            addSessionListener(sessionStats);
+            stats = sessionStats;
+        }
+        return stats;
+    }
+    /**
+     * Registers a listener with the records, holding the lock the log follower
+     * adds records under.
+     *
+     * @param listener the listener to add
+     */
+    private void addSessionListener(SessionListener listener) {
+        synchronized (records) {
+            records.addSessionListener(listener);
+        }
+    }
+    /**
+     * Parses a time given in milliseconds since the epoch.
+     *
+     * @param text the time to parse
+     * @return the time
+     * @throws IllegalArgumentException If the text is not a number.
+     */
+    private static Date parseTime(String text) {
+        try {
+            return new Date(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + text);
+        }
+    }
+    /**
+     * Parses the number of entries of a top query.
+     *
+     * @param text the number to parse
+     * @return the number
+     * @throws IllegalArgumentException If the text is not a positive number.
+     */
+    private static int parseCount(String text) {
+        try {
+            int count = Integer.parseInt(text);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid count: " + text);
+    }
+    /**
+     * Parses a terminal number.
+     *
+     * @param text the terminal number to parse
+     * @return the terminal number
+     * @throws IllegalArgumentException If the text is not a positive number.
+     */
+    private static int parseTerminal(String text) {
+        try {
+            int terminal = Integer.parseInt(text);
+            if (terminal > 0) {
+                return terminal;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid terminal: " + text);
+    }
+    /**
+     * Looks up the first or last session of a user, answering from the cache
+     * when the user was asked about before. Unless the store supports
+     * concurrent queries, a lookup in the store holds the lock the log
+     * follower adds records under.
+     *
+     * @param first true for the first session, false for the last one
+     * @param username The username to search for.
+     * @return the session found
+     * @throws IllegalArgumentException If the username is null or empty.
+     * @throws NoSuchElementException If no session is found for the user.
+     */
+    private Session findSession(boolean first, String username) {
+        SessionCache sessions = getCache();
+        return first ? sessions.getFirstSession(username) : sessions.getLastSession(username);
+    }
 }
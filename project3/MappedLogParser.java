@@ -0,0 +1,236 @@
+ /**
+ * The MappedLogParser reads a log file through a memory-mapped buffer and
+ * scans its bytes directly for the terminal, the timestamp and the username of
+ * every line. Unlike the line-by-line reader it does not split lines into
+ * Strings: numbers are parsed from the digits in place and usernames are
+ * interned through a UsernameDictionary.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class MappedLogParser {
+
+    // Largest region of the file that is mapped at once
+    private static final int MAX_WINDOW = 1 << 30;
+
+    private UsernameDictionary usernames;
+    // Reused buffer the username bytes are copied into before interning
+    private byte[] scratch = new byte[64];
+
+    // Parser-local dictionary in front of the shared one, so that parsers running
+    // on different threads only synchronize on the shared dictionary for new names
+    private UsernameDictionary local = new UsernameDictionary();
+    private int[] sharedIds = new int[64]; // shared id + 1 of each local id, 0 if not resolved yet
+
+    // Records parsed so far, added to the metrics once per range of lines
+    private long parsed;
+
+    /**
+     * Constructs a new MappedLogParser that interns usernames in the given dictionary.
+     *
+     * @param usernames the dictionary of usernames
+     * @throws IllegalArgumentException If the dictionary is null.
+     */
+    public MappedLogParser(UsernameDictionary usernames) {
+        if (usernames == null) {
+            throw new IllegalArgumentException("Username dictionary cannot be null.");
+        }
+        this.usernames = usernames;
+    }
+
+    /**
+     * Parses every line of the file. Malformed lines are reported on System.err.
+     *
+     * @param fileName the name of the log file to read
+     * @param records receives the parsed records in file order
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void parse(String fileName, Consumer<Record> records) throws IOException {
+        parse(fileName, records, System.err::println);
+    }
+
+    /**
+     * Parses every line of the file.
+     *
+     * @param fileName the name of the log file to read
+     * @param records receives the parsed records in file order
+     * @param errors receives an error message for every malformed line
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void parse(String fileName, Consumer<Record> records, Consumer<String> errors) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(MAX_WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean endOfInput = position + length == size;
+                int consumed = parse(buffer, 0, length, endOfInput, records, errors);
+                if (consumed == 0) {
+                    throw new IOException("Line longer than " + MAX_WINDOW + " bytes at offset " + position);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Parses the lines stored between two indexes of the buffer.
+     * If the range does not end the input, a last line without a line terminator
+     * is left for the caller to parse together with the bytes that follow it.
+     *
+     * @param buffer the buffer holding the log lines
+     * @param start the index of the first byte of the first line
+     * @param end the index just past the last byte to parse
+     * @param endOfInput whether <code>end</code> is the end of the log
+     * @param records receives the parsed records in buffer order
+     * @param errors receives an error message for every malformed line
+     * @return the index just past the last line that was parsed
+     */
+    public int parse(ByteBuffer buffer, int start, int end, boolean endOfInput,
+            Consumer<Record> records, Consumer<String> errors) {
+        long before = parsed;
+        int consumed = parseLines(buffer, start, end, endOfInput, records, errors);
+        MetricsRegistry.getGlobal().add("ingest.records", parsed - before);
+        return consumed;
+    }
+
+    private int parseLines(ByteBuffer buffer, int start, int end, boolean endOfInput,
+            Consumer<Record> records, Consumer<String> errors) {
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != '\n' && b != '\r') {
+                continue;
+            }
+            if (b == '\r') {
+                if (i + 1 == end && !endOfInput) {
+                    // The matching '\n' may be in the next range
+                    return lineStart;
+                }
+                parseLine(buffer, lineStart, i, records, errors);
+                if (i + 1 < end && buffer.get(i + 1) == '\n') {
+                    i++;
+                }
+            } else {
+                parseLine(buffer, lineStart, i, records, errors);
+            }
+            lineStart = i + 1;
+        }
+        if (endOfInput && lineStart < end) {
+            parseLine(buffer, lineStart, end, records, errors);
+            lineStart = end;
+        }
+        return lineStart;
+    }
+
+    // Parses a single line (without its terminator) and passes on the record or the error
+    private void parseLine(ByteBuffer buffer, int start, int end,
+            Consumer<Record> records, Consumer<String> errors) {
+        try {
+            records.accept(parseRecord(buffer, start, end));
+            parsed++;
+        } catch (IllegalArgumentException e) {
+            MetricsRegistry.getGlobal().rejected(e);
+            String line = decode(buffer, start, end);
+            errors.accept("Error: Failed to parse record: " + line + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /*
+     * Parses the "TERMINAL TIME USERNAME" fields of a line, with a negative
+     * terminal marking a logout. Fields are separated by single spaces and
+     * trailing spaces are ignored, the same way the line-by-line reader splits them.
+     */
+    private Record parseRecord(ByteBuffer buffer, int start, int lineEnd) {
+        int end = lineEnd;
+        while (end > start && buffer.get(end - 1) == ' ') {
+            end--;
+        }
+        int first = indexOfSpace(buffer, start, end);
+        int second = (first < 0) ? -1 : indexOfSpace(buffer, first + 1, end);
+        if (second < 0 || indexOfSpace(buffer, second + 1, end) >= 0) {
+            throw new IllegalArgumentException("Invalid record format: " + decode(buffer, start, lineEnd));
+        }
+
+        boolean isLogin = buffer.get(start) != '-';
+        int terminalStart = isLogin ? start : start + 1;
+        int terminal = (int) parseNumber(buffer, terminalStart, first, Integer.MAX_VALUE, false);
+        long time = parseNumber(buffer, first + 1, second, Long.MAX_VALUE, true);
+        int userId = usernames.globalId(internUsername(buffer, second + 1, end));
+
+        return new Record(terminal, isLogin, userId, time);
+    }
+
+    // Copies the username bytes into the scratch buffer and interns them
+    private int internUsername(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        int localId = local.intern(scratch, 0, length);
+        if (localId >= sharedIds.length) {
+            sharedIds = Arrays.copyOf(sharedIds, sharedIds.length * 2);
+        }
+        if (sharedIds[localId] == 0) {
+            sharedIds[localId] = usernames.intern(scratch, 0, length) + 1;
+        }
+        return sharedIds[localId] - 1;
+    }
+
+    // Parses a decimal number no larger than max in magnitude, with an optional sign if allowed
+    private static long parseNumber(ByteBuffer buffer, int start, int end, long max, boolean signed) {
+        int i = start;
+        boolean negative = false;
+        if (signed && i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            throw invalidNumber(buffer, start, end);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || value > (max - digit) / 10) {
+                throw invalidNumber(buffer, start, end);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static NumberFormatException invalidNumber(ByteBuffer buffer, int start, int end) {
+        return new NumberFormatException("For input string: \"" + decode(buffer, start, end) + "\"");
+    }
+
+    private static int indexOfSpace(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == ' ') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,409 @@
+ /**
+ * The MergingLogLoader reads a set of log files as one log: the segments of a
+ * rotated log, any of which may be gzip-compressed. Every file is decoded and
+ * parsed by its own MappedLogParser on a pool of one thread per processor, and
+ * the records of all files are merged by time with a heap over the next record
+ * of each file, so a login in one segment pairs with its logout in the next.
+ *
+ * Each file is expected in time order, as a log is written; the records of a
+ * file keep their order in the merge, and records with equal times come from
+ * the file given first. Only the start of every file is read up front, to find
+ * its first record; a file is opened for the merge once the merge reaches that
+ * record, and closed at its end, so the segments of a rotated log are read
+ * about one at a time however many there are. The parsers hand on their
+ * records in batches through small bounded queues, with the batches sized so
+ * that all queues together hold about QUEUED_RECORDS records. An error message
+ * for a malformed line is passed on just before the record that followed the
+ * line in its file.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+public class MergingLogLoader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Bytes read to find the first record of a file before it is opened for the merge
+    private static final int PROBE_SIZE = 1 << 12;
+    // Records per batch handed from a decoder to the merge, and batches queued per file
+    private static final int BATCH_SIZE = 4096;
+    private static final int MIN_BATCH_SIZE = 64;
+    private static final int QUEUED_BATCHES = 4;
+    // Records queued for the merge over all files, unless the batches would get smaller than MIN_BATCH_SIZE
+    private static final int QUEUED_RECORDS = 1 << 16;
+
+    private UsernameDictionary usernames;
+
+    /**
+     * Constructs a new MergingLogLoader.
+     *
+     * @param usernames the dictionary the usernames are interned in
+     * @throws IllegalArgumentException If the dictionary is null.
+     */
+    public MergingLogLoader(UsernameDictionary usernames) {
+        if (usernames == null) {
+            throw new IllegalArgumentException("Username dictionary cannot be null.");
+        }
+        this.usernames = usernames;
+    }
+
+    /**
+     * Returns the files a command-line argument names: the files in the
+     * directory of the argument whose names match it as a glob pattern, in name
+     * order, if the name part has any of the characters *?[{, or else the
+     * argument itself.
+     *
+     * @param argument a file name, or a file name pattern like "logs/auth.log*"
+     * @return the names of the files
+     * @throws IOException If the directory cannot be listed.
+     * @throws IllegalArgumentException If the pattern matches no file.
+     */
+    public static List<String> expand(String argument) throws IOException {
+        Path path = Paths.get(argument);
+        Path name = path.getFileName();
+        if (name == null || !isPattern(name.toString())) {
+            return List.of(argument);
+        }
+        Path directory = (path.getParent() != null) ? path.getParent() : Paths.get(".");
+        PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + name);
+        ArrayList<String> matches = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (matcher.matches(entry.getFileName()) && Files.isRegularFile(entry)) {
+                    matches.add((path.getParent() != null) ? entry.toString() : entry.getFileName().toString());
+                }
+            }
+        }
+        if (matches.isEmpty()) {
+            throw new IllegalArgumentException("No file matches: " + argument);
+        }
+        matches.sort(null);
+        return matches;
+    }
+
+    /**
+     * Returns whether a file starts with the gzip magic number.
+     *
+     * @param fileName the name of the file
+     * @return true if the file is gzip-compressed
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isCompressed(String fileName) throws IOException {
+        try (InputStream in = new FileInputStream(fileName)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Parses every line of the files and merges their records by time.
+     *
+     * @param fileNames the names of the log files, plain or gzip-compressed
+     * @param records receives the parsed records in time order
+     * @param errors receives an error message for every malformed line
+     * @throws IOException If an error occurs while reading a file.
+     * @throws IllegalArgumentException If no file is given.
+     */
+    public void load(List<String> fileNames, Consumer<Record> records, Consumer<String> errors) throws IOException {
+        if (fileNames == null || fileNames.isEmpty()) {
+            throw new IllegalArgumentException("File names cannot be null or empty.");
+        }
+        int perFile = QUEUED_RECORDS / (QUEUED_BATCHES * fileNames.size());
+        int batchSize = Math.max(MIN_BATCH_SIZE, Math.min(BATCH_SIZE, perFile));
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService decoders = Executors.newFixedThreadPool(
+                Math.min(fileNames.size(), Runtime.getRuntime().availableProcessors()), task -> {
+                    Thread thread = new Thread(task, "log-decoder-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        try {
+            // The sources ordered by their next record, the first given first on equal times
+            PriorityQueue<Source> heads = new PriorityQueue<>((a, b) -> (a.nextTime() != b.nextTime())
+                    ? Long.compare(a.nextTime(), b.nextTime()) : Integer.compare(a.index, b.index));
+            for (int i = 0; i < fileNames.size(); i++) {
+                Source source = new Source(i, fileNames.get(i), batchSize, decoders);
+                source.probe();
+                heads.add(source);
+            }
+            while (!heads.isEmpty()) {
+                Source source = heads.poll();
+                if (!source.started) {
+                    // A file is only opened once the merge reaches its first record
+                    if (source.start(errors)) {
+                        heads.add(source);
+                    }
+                    continue;
+                }
+                Source runnerUp = heads.peek();
+                // Take records from the same source for as long as it stays first
+                do {
+                    records.accept(source.take());
+                    if (!source.advance(errors)) {
+                        source = null;
+                        break;
+                    }
+                } while (runnerUp == null || source.nextTime() < runnerUp.nextTime()
+                        || (source.nextTime() == runnerUp.nextTime() && source.index < runnerUp.index));
+                if (source != null) {
+                    heads.add(source);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + fileNames, e);
+        } finally {
+            decoders.shutdownNow();
+        }
+    }
+
+    private static boolean isPattern(String name) {
+        for (char c : name.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* The records and error messages of consecutive lines of one file. */
+    private static class Batch {
+        ArrayList<Record> records;
+        ArrayList<String> errors = new ArrayList<>();
+        // Number of records parsed before each error, to restore the line order
+        ArrayList<Integer> errorLines = new ArrayList<>();
+        // Set on the last batch of a file, with the error that ended it if any
+        boolean last;
+        Throwable failure;
+
+        Batch(int capacity) {
+            records = new ArrayList<>(capacity);
+        }
+    }
+
+    /* Parses a file a buffer at a time. */
+    private class LineReader implements Closeable {
+        private InputStream in;
+        private MappedLogParser parser = new MappedLogParser(usernames);
+        private ByteBuffer buffer;
+
+        LineReader(String fileName, int bufferSize) throws IOException {
+            in = new BufferedInputStream(new FileInputStream(fileName), bufferSize);
+            in.mark(2);
+            boolean compressed = in.read() == 0x1f && in.read() == 0x8b;
+            in.reset();
+            if (compressed) {
+                in = new GZIPInputStream(in, bufferSize);
+            }
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        // Reads and parses the next piece of the file; false once the whole file was parsed
+        boolean read(Consumer<Record> records, Consumer<String> errors) throws IOException {
+            if (!buffer.hasRemaining()) {
+                // A single line fills the buffer
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            boolean endOfInput = read < 0;
+            if (!endOfInput) {
+                buffer.position(buffer.position() + read);
+            }
+            buffer.flip();
+            int parsed = parser.parse(buffer, 0, buffer.limit(), endOfInput, records, errors);
+            buffer.position(parsed);
+            buffer.compact();
+            return !endOfInput;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /*
+     * One file: parsed a batch at a time by tasks of the decoder pool, read by
+     * the merge through the queue. A task never waits for the merge: it stops
+     * when the queue is full, and the merge starts another one when it takes a
+     * batch. The last slot of the queue is kept for the last batch, so it can
+     * always be posted.
+     */
+    private class Source implements Runnable {
+        final int index;
+        final String fileName;
+        final int batchSize;
+        final ExecutorService decoders;
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES + 1);
+        // Whether a task is parsing the file or queued to
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Set once the last batch is posted
+        volatile boolean finished;
+
+        // Used by the decoding tasks only, one at a time
+        private LineReader reader;
+        private Batch filling;
+        private Consumer<Record> records = record -> filling.records.add(record);
+        private Consumer<String> errors = message -> {
+            filling.errors.add(message);
+            filling.errorLines.add(filling.records.size());
+        };
+
+        // Used by the merge only: the time of the first record before the file is
+        // opened, and afterwards the batch being merged and the position in it
+        long firstTime;
+        boolean started;
+        Batch current;
+        int position;
+        int error;
+
+        Source(int index, String fileName, int batchSize, ExecutorService decoders) {
+            this.index = index;
+            this.fileName = fileName;
+            this.batchSize = batchSize;
+            this.decoders = decoders;
+            this.filling = new Batch(batchSize);
+        }
+
+        // Finds the time of the first record, Long.MAX_VALUE if there is none, reading as little as needed
+        void probe() throws IOException {
+            firstTime = Long.MAX_VALUE;
+            boolean[] found = new boolean[1];
+            Consumer<Record> first = record -> {
+                if (!found[0]) {
+                    found[0] = true;
+                    firstTime = record.getTimeMillis();
+                }
+            };
+            try (LineReader probe = new LineReader(fileName, PROBE_SIZE)) {
+                while (!found[0] && probe.read(first, message -> { })) {
+                    // Keep reading until a line parses
+                }
+            } catch (IOException e) {
+                throw new IOException("Unable to read " + fileName + " (" + e.getMessage() + ")", e);
+            }
+        }
+
+        // Starts parsing the file and moves to its first record; false if it has none
+        boolean start(Consumer<String> errors) throws IOException, InterruptedException {
+            started = true;
+            schedule();
+            return advance(errors);
+        }
+
+        void schedule() {
+            if (!finished && scheduled.compareAndSet(false, true)) {
+                decoders.execute(this);
+            }
+        }
+
+        // Parses batches while the queue has room for more than the last batch
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                while (!finished && queue.remainingCapacity() > 1) {
+                    parseBatch();
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                if (failure != null && !finished) {
+                    // Without a last batch the merge would wait for one forever
+                    Batch last = new Batch(0);
+                    last.failure = failure;
+                    finish(last);
+                }
+                scheduled.set(false);
+            }
+            // The merge may have taken a batch after the queue was found full
+            if (!finished && queue.remainingCapacity() > 1) {
+                schedule();
+            }
+        }
+
+        // Parses lines until a batch is full or the file ends, and posts the batch
+        private void parseBatch() throws IOException {
+            if (reader == null) {
+                reader = new LineReader(fileName, BUFFER_SIZE);
+            }
+            while (filling.records.size() < batchSize) {
+                if (!reader.read(records, errors)) {
+                    finish(filling);
+                    return;
+                }
+            }
+            queue.add(filling);
+            filling = new Batch(batchSize);
+        }
+
+        private void finish(Batch last) {
+            last.last = true;
+            finished = true;
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Every line was read already
+                }
+            }
+            queue.add(last);
+        }
+
+        long nextTime() {
+            return started ? current.records.get(position).getTimeMillis() : firstTime;
+        }
+
+        Record take() {
+            return current.records.get(position++);
+        }
+
+        // Moves to the next record, passing on the errors before it; false at the end of the file
+        boolean advance(Consumer<String> errors) throws IOException, InterruptedException {
+            while (true) {
+                if (current != null) {
+                    while (error < current.errors.size() && current.errorLines.get(error) <= position) {
+                        errors.accept(current.errors.get(error++));
+                    }
+                    if (position < current.records.size()) {
+                        return true;
+                    }
+                    if (current.last) {
+                        return false;
+                    }
+                }
+                current = queue.take();
+                schedule();
+                position = 0;
+                error = 0;
+                if (current.failure != null) {
+                    Throwable failure = current.failure;
+                    String reason = (failure instanceof IOException) ? failure.getMessage() : failure.toString();
+                    throw new IOException("Unable to read " + fileName + " (" + reason + ")", failure);
+                }
+            }
+        }
+    }
+}
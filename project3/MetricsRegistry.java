@@ -0,0 +1,363 @@
+ /**
+ * The MetricsRegistry counts what the program does and times how long it
+ * takes: records parsed and lines rejected by reason while loading, how long
+ * loads and queries take, and how often the indexes answer from what they
+ * already hold. Counters are LongAdders, so parser threads can count without
+ * contending; timers keep their count, total and maximum and a DurationSketch
+ * of the times for percentiles, in stripes that threads record into by their
+ * hash, so concurrent queries seldom wait on the same lock.
+ *
+ * The parsers count a batch of lines at a time and queries are timed once per
+ * command, through a Timer looked up once by callers on a hot path, so keeping
+ * the metrics costs next to nothing there. The
+ * global registry is read with the metrics command, and through JMX once it
+ * is registered as an MBean.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MetricsRegistry implements MetricsRegistryMXBean {
+
+    /** The name the global registry is registered under with JMX. */
+    public static final String OBJECT_NAME = "project3:type=MetricsRegistry";
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    // Default constructor to create an empty MetricsRegistry object
+    public MetricsRegistry() {
+    }
+
+    /**
+     * Returns the registry the parsers, indexes and queries report to.
+     * @return the global registry
+     */
+    public static MetricsRegistry getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * Registers the global registry with the platform MBean server, unless it
+     * is registered already.
+     *
+     * @throws JMException If the registry cannot be registered.
+     */
+    public static synchronized void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(GLOBAL, name);
+        }
+    }
+
+    /**
+     * Adds one to a counter.
+     *
+     * @param name the name of the counter
+     */
+    public void increment(String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param name the name of the counter
+     * @param delta the amount to add
+     */
+    public void add(String name, long delta) {
+        if (delta != 0) {
+            counter(name).add(delta);
+        }
+    }
+
+    /**
+     * Returns the value of a counter.
+     *
+     * @param name the name of the counter
+     * @return the value of the counter, 0 if nothing was counted
+     */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return (counter != null) ? counter.sum() : 0;
+    }
+
+    /**
+     * Adds a time to a timer.
+     *
+     * @param name the name of the timer
+     * @param nanos the time in nanoseconds
+     */
+    public void recordTime(String name, long nanos) {
+        timer(name).record(nanos);
+    }
+
+    /**
+     * Returns the timer with the given name, creating it on first use, so a
+     * caller that records the same time often can look it up only once. The
+     * timer stays in the registry when the registry is reset.
+     *
+     * @param name the name of the timer
+     * @return the timer
+     */
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(name, k -> new Timer());
+        }
+        return timer;
+    }
+
+    /**
+     * Returns the number of times added to a timer.
+     *
+     * @param name the name of the timer
+     * @return the number of times, 0 if the timer was never used
+     */
+    public long getTimerCount(String name) {
+        Timer timer = timers.get(name);
+        return (timer != null) ? timer.snapshot().count : 0;
+    }
+
+    /**
+     * Counts a line that could not be parsed, under the reason it was rejected for.
+     *
+     * @param e the exception the parser threw for the line
+     */
+    public void rejected(IllegalArgumentException e) {
+        increment("ingest.rejected." + rejectReason(e));
+    }
+
+    /**
+     * Clears all counters and timers.
+     */
+    @Override
+    public void reset() {
+        counters.clear();
+        for (Timer timer : timers.values()) {
+            timer.clear();
+        }
+    }
+
+    /**
+     * Returns the values of all counters by name.
+     * @return the counters, in name order
+     */
+    @Override
+    public Map<String, Long> getCounters() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    /**
+     * Returns the given percentile of every timer, in microseconds.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile of each timer by name, in name order
+     * @throws IllegalArgumentException If the percentile is not between 0 and 100.
+     */
+    @Override
+    public Map<String, Double> getPercentiles(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        TreeMap<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Snapshot snapshot = entry.getValue().snapshot();
+            if (snapshot.count > 0) {
+                values.put(entry.getKey(), snapshot.times.quantile(percentile / 100) / 1000.0);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the number of records parsed per second of loading.
+     * @return the ingest throughput, 0 if no load was timed
+     */
+    @Override
+    public double getIngestThroughput() {
+        Timer timer = timers.get("ingest");
+        if (timer == null) {
+            return 0;
+        }
+        Snapshot snapshot = timer.snapshot();
+        return (snapshot.total > 0) ? getCount("ingest.records") * 1e9 / snapshot.total : 0;
+    }
+
+    /**
+     * Describes all counters and timers, with the hit rate of every counter
+     * pair named NAME.hit and NAME.miss.
+     *
+     * @return the metrics, one per line
+     */
+    @Override
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        Map<String, Long> values = getCounters();
+        sb.append("counters:\n");
+        if (values.isEmpty()) {
+            sb.append("  none\n");
+        }
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            String name = entry.getKey();
+            if (name.endsWith(".hit")) {
+                String base = name.substring(0, name.length() - ".hit".length());
+                long hits = entry.getValue();
+                long total = hits + values.getOrDefault(base + ".miss", 0L);
+                sb.append(String.format("  %s hit rate: %.1f%%\n", base, 100.0 * hits / total));
+            }
+        }
+        double throughput = getIngestThroughput();
+        if (throughput > 0) {
+            sb.append(String.format("  ingest throughput: %.0f records/s\n", throughput));
+        }
+
+        sb.append("timers (count, mean, p50, p90, p99, max in microseconds):");
+        TreeMap<String, Timer> sorted = new TreeMap<>(timers);
+        int described = 0;
+        for (Map.Entry<String, Timer> entry : sorted.entrySet()) {
+            Snapshot snapshot = entry.getValue().snapshot();
+            if (snapshot.count == 0) {
+                continue;
+            }
+            described++;
+            sb.append(String.format("\n  %s: %d, %.1f, %.1f, %.1f, %.1f, %.1f", entry.getKey(), snapshot.count,
+                    snapshot.total / 1000.0 / snapshot.count,
+                    snapshot.times.quantile(0.5) / 1000.0,
+                    snapshot.times.quantile(0.9) / 1000.0,
+                    snapshot.times.quantile(0.99) / 1000.0,
+                    snapshot.max / 1000.0));
+        }
+        if (described == 0) {
+            sb.append("\n  none");
+        }
+        return sb.toString();
+    }
+
+    private LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    // Names the reason a line was rejected for from what the parsers throw
+    private static String rejectReason(IllegalArgumentException e) {
+        String message = (e.getMessage() != null) ? e.getMessage() : "";
+        if (e instanceof NumberFormatException) {
+            return "number";
+        } else if (message.startsWith("Invalid record format")) {
+            return "format";
+        } else if (message.startsWith("Terminal")) {
+            return "terminal";
+        } else if (message.startsWith("Username")) {
+            return "username";
+        }
+        return "other";
+    }
+
+    /**
+     * The times added under one name. Each thread records into one of several
+     * stripes, picked by a hash of the thread, so threads recording at the
+     * same time seldom contend; a snapshot merges the stripes.
+     */
+    public static class Timer {
+        // A power of two, about twice the number of processors
+        private static final int STRIPES = Integer.highestOneBit(
+                Math.min(64, Math.max(1, Runtime.getRuntime().availableProcessors())) * 4 - 1);
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+
+        Timer() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        /**
+         * Adds a time.
+         *
+         * @param nanos the time in nanoseconds, a negative time is added as 0
+         */
+        public void record(long nanos) {
+            int hash = Thread.currentThread().hashCode();
+            stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)].record(Math.max(0, nanos));
+        }
+
+        Snapshot snapshot() {
+            long count = 0;
+            long total = 0;
+            long max = 0;
+            DurationSketch times = new DurationSketch();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    count += stripe.count;
+                    total += stripe.total;
+                    max = Math.max(max, stripe.max);
+                    times.merge(stripe.times);
+                }
+            }
+            return new Snapshot(count, total, max, times);
+        }
+
+        void clear() {
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.count = 0;
+                    stripe.total = 0;
+                    stripe.max = 0;
+                    stripe.times = new DurationSketch();
+                }
+            }
+        }
+    }
+
+    /* The times one group of threads added to a timer. */
+    private static class Stripe {
+        private long count;
+        private long total;
+        private long max;
+        private DurationSketch times = new DurationSketch();
+
+        synchronized void record(long nanos) {
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+            times.add(nanos);
+        }
+    }
+
+    /* A consistent copy of a timer. */
+    private static class Snapshot {
+        final long count;
+        final long total;
+        final long max;
+        final DurationSketch times;
+
+        Snapshot(long count, long total, long max, DurationSketch times) {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            this.times = times;
+        }
+    }
+}
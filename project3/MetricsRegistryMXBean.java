@@ -0,0 +1,43 @@
+ /**
+ * The MetricsRegistryMXBean interface is the management interface of the
+ * MetricsRegistry, so that the metrics can be read with JMX tools such as
+ * JConsole while the program runs.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.Map;
+
+public interface MetricsRegistryMXBean {
+
+    /**
+     * Returns the values of all counters by name.
+     * @return the counters
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns the given percentile of every timer, in microseconds.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile of each timer by name
+     */
+    Map<String, Double> getPercentiles(double percentile);
+
+    /**
+     * Returns the number of records parsed per second of loading.
+     * @return the ingest throughput
+     */
+    double getIngestThroughput();
+
+    /**
+     * Describes all counters and timers.
+     * @return the metrics, one per line
+     */
+    String describe();
+
+    /**
+     * Clears all counters and timers.
+     */
+    void reset();
+}
@@ -0,0 +1,343 @@
+ /**
+ * The OffHeapRecordStore keeps records outside the Java heap, as fixed-width
+ * structs in direct byte buffers, or in buffers mapped from a file when one is
+ * given. However many records are loaded, the heap only holds the buffers
+ * themselves and one int per user, so the garbage collector has nothing to
+ * trace or copy and its pauses do not grow with the log.
+ *
+ * Each record takes RECORD_BYTES: the terminal, negative for a logout, the
+ * username id, the time in milliseconds and the position of the previous
+ * record of the same user. The last of these chains the records of every user
+ * from the newest back to the oldest, so a session query reads only the
+ * records of the user asked about. Record objects are created on demand, when
+ * a record is read back or paired into sessions.
+ *
+ * The buffers are allocated a chunk at a time, so the store grows without
+ * copying and is not limited by the 2 GB size of a single buffer.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class OffHeapRecordStore implements RecordStore, Iterable<Record>, Closeable {
+
+    /** Terminal (negative for a logout), username id, time, previous record of the user. */
+    public static final int RECORD_BYTES = 20;
+
+    private static final int TIME_OFFSET = 8;
+    private static final int PREVIOUS_OFFSET = 16;
+    // Records per chunk, a power of two
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+    private static final int NO_RECORD = -1;
+
+    private ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private int size;
+    // The file the chunks are mapped from, null for direct buffers
+    private File file;
+    private FileChannel channel;
+
+    // Position of the newest record of each user, indexed by username id
+    private int[] lastPositions = new int[16];
+
+    // Pairs the records added for each session listener, keeping only the open logins
+    private ArrayList<Sessionizer> pairings = new ArrayList<>();
+    // Told the user of every record added
+    private CopyOnWriteArrayList<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
+    // Default constructor to create an empty OffHeapRecordStore in direct buffers
+    public OffHeapRecordStore() {
+        Arrays.fill(lastPositions, NO_RECORD);
+    }
+
+    /**
+     * Constructs an empty OffHeapRecordStore in buffers mapped from the given
+     * file, which is created or emptied. The operating system pages the records
+     * in and out of memory as needed.
+     *
+     * @param file the file holding the records
+     * @throws IOException If the file cannot be created.
+     * @throws IllegalArgumentException If the file is null.
+     */
+    public OffHeapRecordStore(File file) throws IOException {
+        this();
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null.");
+        }
+        this.file = file;
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(0);
+        this.channel = access.getChannel();
+    }
+
+    /**
+     * Appends the record to the end of the store.
+     *
+     * @param record the record to add
+     * @return true
+     * @throws IllegalArgumentException If the record is null.
+     * @throws IllegalStateException If the store is full or its file cannot be extended.
+     */
+    @Override
+    public boolean add(Record record) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record cannot be null.");
+        }
+        add(record.getTerminal(), record.isLogin(), record.getUserId(), record.getTimeMillis());
+        for (Sessionizer pairing : pairings) {
+            pairing.accept(record);
+        }
+        for (AppendListener listener : appendListeners) {
+            listener.recordAppended(record.getUserId());
+        }
+        return true;
+    }
+
+    /**
+     * Returns a Record holding the values stored at the given position.
+     *
+     * @param index the position of the record
+     * @return a new Record for the record at that position
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    @Override
+    public Record get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ByteBuffer chunk = chunks.get(index >>> CHUNK_SHIFT);
+        int offset = (index & (CHUNK_RECORDS - 1)) * RECORD_BYTES;
+        int terminal = chunk.getInt(offset);
+        return new Record(Math.abs(terminal), terminal > 0, chunk.getInt(offset + 4), chunk.getLong(offset + TIME_OFFSET));
+    }
+
+    /**
+     * Returns the number of records in the store.
+     * @return the number of records
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes of memory the records take, outside the heap.
+     * @return the size of the allocated chunks in bytes
+     */
+    public long getAllocatedBytes() {
+        return (long) chunks.size() * CHUNK_RECORDS * RECORD_BYTES;
+    }
+
+    /**
+     * Registers a listener to be told about the sessions already paired and
+     * the sessions of every record added from now on. The records are read
+     * back and paired for the listener, in log order, by a Sessionizer that
+     * keeps only the open logins, so the sessions are never all held on the
+     * heap.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        Sessionizer pairing = new Sessionizer(false);
+        pairing.addListener(listener);
+        for (Record record : this) {
+            pairing.accept(record);
+        }
+        pairings.add(pairing);
+    }
+
+    /**
+     * Registers a listener to be told the user of every record added from now
+     * on, once the record can be seen by queries. Nothing is replayed to it.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addAppendListener(AppendListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        appendListeners.add(listener);
+    }
+
+    /**
+     * Returns the sessions of the given user ordered by login time. The
+     * sessions are paired from the user's records on every call, reading only
+     * the records of the user.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     */
+    @Override
+    public List<Session> getSessions(String user) {
+        Sessionizer sessionizer = new Sessionizer();
+        int userId = (user != null) ? UsernameDictionary.getGlobal().lookup(user) : NO_RECORD;
+        if (userId >= 0 && userId < lastPositions.length) {
+            // Walk the chain from the newest record back, then pair the records in log order
+            int[] positions = new int[16];
+            int count = 0;
+            for (int position = lastPositions[userId]; position != NO_RECORD; position = previous(position)) {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+                positions[count++] = position;
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                sessionizer.accept(get(positions[i]));
+            }
+        }
+        return sessionizer.getSessions(user);
+    }
+
+    /**
+     * Retrieves the first session for the specified user.
+     * The first session is defined as the session with the earliest login time.
+     *
+     * @param user The username to search for.
+     * @return The first Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getFirstSession(String user) {
+        List<Session> sessions = getUserSessions(user);
+        return sessions.get(0);
+    }
+
+    /**
+     * Retrieves the last session for the specified user.
+     * The last session is defined as the session with the latest login time.
+     *
+     * @param user The username to search for.
+     * @return The last Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getLastSession(String user) {
+        List<Session> sessions = getUserSessions(user);
+        return sessions.get(sessions.size() - 1);
+    }
+
+    /**
+     * Returns an iterator over Records created from the stored records.
+     *
+     * @return an iterator over the records, in the order they were added
+     */
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Record next() {
+                if (next >= size) {
+                    throw new NoSuchElementException("the end of the store reached");
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Releases the buffers and closes and deletes the file the records were
+     * mapped from, if any. Direct and mapped memory is returned once the
+     * buffers are garbage collected.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        size = 0;
+        Arrays.fill(lastPositions, NO_RECORD);
+        if (channel != null) {
+            channel.close();
+            file.delete();
+        }
+    }
+
+    // Writes a record into the next free struct and links it to the previous record of its user
+    private void add(int terminal, boolean login, int userId, long time) {
+        if (terminal <= 0) {
+            throw new IllegalArgumentException("Terminal number must be a positive integer.");
+        }
+        if (userId < 0) {
+            throw new IllegalArgumentException("Unknown username id: " + userId);
+        }
+        if (size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("The store is full.");
+        }
+        if ((size & (CHUNK_RECORDS - 1)) == 0) {
+            chunks.add(newChunk(chunks.size()));
+        }
+        if (userId >= lastPositions.length) {
+            int length = lastPositions.length;
+            lastPositions = Arrays.copyOf(lastPositions, Math.max(userId + 1, length * 2));
+            Arrays.fill(lastPositions, length, lastPositions.length, NO_RECORD);
+        }
+        ByteBuffer chunk = chunks.get(size >>> CHUNK_SHIFT);
+        int offset = (size & (CHUNK_RECORDS - 1)) * RECORD_BYTES;
+        chunk.putInt(offset, login ? terminal : -terminal);
+        chunk.putInt(offset + 4, userId);
+        chunk.putLong(offset + TIME_OFFSET, time);
+        chunk.putInt(offset + PREVIOUS_OFFSET, lastPositions[userId]);
+        lastPositions[userId] = size;
+        size++;
+    }
+
+    // Position of the previous record of the same user as the record at the position
+    private int previous(int position) {
+        ByteBuffer chunk = chunks.get(position >>> CHUNK_SHIFT);
+        return chunk.getInt((position & (CHUNK_RECORDS - 1)) * RECORD_BYTES + PREVIOUS_OFFSET);
+    }
+
+    // Allocates the buffer of a chunk, mapped from the file when there is one
+    private ByteBuffer newChunk(int number) {
+        int bytes = CHUNK_RECORDS * RECORD_BYTES;
+        if (channel == null) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) number * bytes, bytes).order(ByteOrder.nativeOrder());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to extend " + file + " (" + e.getMessage() + ")", e);
+        }
+    }
+
+    // Validates the username and returns its non-empty list of sessions
+    private List<Session> getUserSessions(String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        List<Session> sessions = getSessions(user);
+        if (sessions.isEmpty()) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        return sessions;
+    }
+}
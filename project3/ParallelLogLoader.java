@@ -0,0 +1,220 @@
+ /**
+ * The ParallelLogLoader parses a log file on several threads. The file is
+ * split into chunks at line boundaries, every chunk is parsed by its own
+ * MappedLogParser on a thread pool, and the results are handed on chunk by
+ * chunk in file order, so the records and the error messages come out in the
+ * same order as with a single-threaded read.
+ *
+ * Only a window of chunks is parsed ahead of the one being handed on, and a
+ * chunk is dropped as soon as it has been handed on, so the records held by
+ * the loader stay bounded by the window instead of growing with the file.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+public class ParallelLogLoader {
+
+    // Bounds on the size of a chunk, a chunk must fit in a single mapped buffer
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 1 << 30;
+    // Largest chunk the file is split into, so a chunk's records take a bounded amount of heap
+    private static final long TARGET_CHUNK = 1 << 23;
+    // Chunks per thread, so a slow chunk does not leave the other threads idle
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Chunks parsed or waiting per thread at a time
+    private static final int WINDOW_PER_THREAD = 2;
+
+    private UsernameDictionary usernames;
+    private int parallelism;
+
+    /**
+     * Constructs a new ParallelLogLoader using one thread per available processor.
+     *
+     * @param usernames the dictionary the usernames are interned in
+     */
+    public ParallelLogLoader(UsernameDictionary usernames) {
+        this(usernames, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new ParallelLogLoader using the given number of threads.
+     *
+     * @param usernames the dictionary the usernames are interned in
+     * @param parallelism the number of parsing threads
+     * @throws IllegalArgumentException If the dictionary is null or parallelism is not positive.
+     */
+    public ParallelLogLoader(UsernameDictionary usernames, int parallelism) {
+        if (usernames == null) {
+            throw new IllegalArgumentException("Username dictionary cannot be null.");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be a positive integer.");
+        }
+        this.usernames = usernames;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Parses every line of the file.
+     *
+     * @param fileName the name of the log file to read
+     * @param records receives the parsed records in file order
+     * @param errors receives an error message for every malformed line, in file order
+     * @throws IOException If an error occurs while reading the file.
+     */
+    public void load(String fileName, Consumer<Record> records, Consumer<String> errors) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ArrayDeque<Future<Chunk>> chunks = new ArrayDeque<>();
+            long[] bounds = split(channel);
+            int window = parallelism * WINDOW_PER_THREAD;
+            int next = 0;
+
+            // Merge the chunks in file order as soon as each one is done,
+            // submitting the next chunk each time one is taken off the window
+            while (next + 1 < bounds.length || !chunks.isEmpty()) {
+                while (chunks.size() < window && next + 1 < bounds.length) {
+                    long start = bounds[next];
+                    long end = bounds[++next];
+                    chunks.add(pool.submit(() -> parse(channel, start, end)));
+                }
+                Chunk chunk = chunks.remove().get();
+                // The records and errors of a chunk are interleaved in line order
+                int error = 0;
+                for (int i = 0; i < chunk.records.size(); i++) {
+                    while (error < chunk.errors.size() && chunk.errorLines.get(error) <= i) {
+                        errors.accept(chunk.errors.get(error++));
+                    }
+                    records.accept(chunk.records.get(i));
+                }
+                while (error < chunk.errors.size()) {
+                    errors.accept(chunk.errors.get(error++));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + fileName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Returns the chunk boundaries, each one just past a '\n' or at the end of the file
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = size / ((long) parallelism * CHUNKS_PER_THREAD);
+        chunkSize = Math.max(MIN_CHUNK, Math.min(TARGET_CHUNK, chunkSize));
+
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long position = 0;
+        while (size - position > chunkSize) {
+            long next = nextLineStart(channel, position + chunkSize, size);
+            if (next - position > MAX_CHUNK) {
+                // The line at the target runs past what a chunk can hold, end the chunk before it
+                next = lastLineStart(channel, position, position + MAX_CHUNK);
+                if (next == position) {
+                    throw new IOException("Line longer than " + MAX_CHUNK + " bytes at offset " + position);
+                }
+            }
+            if (next >= size) {
+                break;
+            }
+            bounds.add(next);
+            position = next;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Returns the position just past the first '\n' at or after the given position
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // Returns the position just past the last '\n' in [from, limit), or from if there is none
+    private static long lastLineStart(FileChannel channel, long from, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long end = limit;
+        while (end > from) {
+            long start = Math.max(from, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            int read = 0;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, start + read);
+                if (n <= 0) {
+                    break;
+                }
+                read += n;
+            }
+            for (int i = read - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return from;
+    }
+
+    // Parses one chunk with a parser of its own, the parsers are not thread-safe
+    private Chunk parse(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        Chunk chunk = new Chunk();
+        MappedLogParser parser = new MappedLogParser(usernames);
+        parser.parse(buffer, 0, (int) (end - start), true, chunk.records::add, message -> {
+            chunk.errors.add(message);
+            chunk.errorLines.add(chunk.records.size());
+        });
+        return chunk;
+    }
+
+    /* The records and error messages of one chunk. */
+    private static class Chunk {
+        ArrayList<Record> records = new ArrayList<>();
+        ArrayList<String> errors = new ArrayList<>();
+        // Number of records parsed before each error, to restore the line order
+        ArrayList<Integer> errorLines = new ArrayList<>();
+    }
+}
@@ -0,0 +1,212 @@
+ /**
+ * The QueryServer answers "first USERNAME" and "last USERNAME" commands from
+ * any number of clients at once, over a local TCP port or a Unix domain
+ * socket, so a log loaded once can be queried by everyone who needs it.
+ *
+ * A client sends one command per line and gets back the session found
+ * followed by an empty line, or a line starting with "Error:", and "quit"
+ * ends the connection. Each connection is served on a thread of its own: a
+ * virtual thread when the Java runtime has them, and otherwise a thread of a
+ * cached pool. Answers are buffered and sent once the client has no more
+ * commands waiting, so a client that sends many commands at once gets them
+ * answered in few writes.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QueryServer implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private SessionCache sessions;
+    private ServerSocketChannel channel;
+    private SocketAddress address;
+    private ExecutorService connections;
+    private MetricsRegistry metrics = MetricsRegistry.getGlobal();
+    // Looked up once, so timing a query neither builds a name nor searches the registry
+    private MetricsRegistry.Timer firstTimer = metrics.timer("query.first");
+    private MetricsRegistry.Timer lastTimer = metrics.timer("query.last");
+    private MetricsRegistry.Timer invalidTimer = metrics.timer("query.invalid");
+
+    /**
+     * Constructs a QueryServer listening on the given address: a port number
+     * on the loopback interface, where port 0 picks a free port, or else the
+     * path of a Unix domain socket, which must not exist yet. The queries are
+     * answered through a SessionCache of its own, registered on the store.
+     *
+     * @param records the records to query
+     * @param address a port number or a socket path
+     * @throws IOException If the server cannot listen on the address.
+     * @throws IllegalArgumentException If records is null or the address is empty or not a valid port.
+     */
+    public QueryServer(RecordStore records, String address) throws IOException {
+        this(SessionCache.attach(records), address);
+    }
+
+    /**
+     * Constructs a QueryServer answering through the given cache, listening
+     * on the given address like the constructor taking the records.
+     *
+     * @param sessions the cache the queries are answered through
+     * @param address a port number or a socket path
+     * @throws IOException If the server cannot listen on the address.
+     * @throws IllegalArgumentException If sessions is null or the address is empty or not a valid port.
+     */
+    public QueryServer(SessionCache sessions, String address) throws IOException {
+        if (sessions == null) {
+            throw new IllegalArgumentException("Session cache cannot be null.");
+        }
+        if (address == null || address.isEmpty()) {
+            throw new IllegalArgumentException("Address cannot be null or empty.");
+        }
+        this.sessions = sessions;
+        if (address.chars().allMatch(Character::isDigit)) {
+            int port = Integer.parseInt(address);
+            if (port > 65535) {
+                throw new IllegalArgumentException("Invalid port: " + address);
+            }
+            channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } else {
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.bind(UnixDomainSocketAddress.of(address));
+        }
+        this.address = channel.getLocalAddress();
+        this.connections = newConnectionExecutor();
+    }
+
+    /**
+     * Returns the address the server listens on.
+     * @return the loopback address and port, or the Unix domain socket address
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Accepts connections and serves each on a thread of its own, until the
+     * server is closed.
+     *
+     * @throws IOException If a connection cannot be accepted.
+     */
+    public void serve() throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                // Closed by close()
+                return;
+            }
+            metrics.increment("server.connections");
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    /**
+     * Stops accepting connections and ends the open ones. A Unix domain socket
+     * file is removed.
+     *
+     * @throws IOException If the server socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        connections.shutdownNow();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    // Answers the commands of one client until it quits or disconnects
+    private void handle(SocketChannel client) {
+        try (client) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8), BUFFER_SIZE);
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8), BUFFER_SIZE);
+            SessionFormatter formatter = SessionFormatter.getDefault();
+            StringBuilder sb = new StringBuilder(256);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.equalsIgnoreCase("quit")) {
+                    break;
+                }
+                long start = System.nanoTime();
+                String[] parts = line.split(" ");
+                boolean valid = parts.length == 2
+                        && (parts[0].equalsIgnoreCase("first") || parts[0].equalsIgnoreCase("last"));
+                boolean first = valid && parts[0].equalsIgnoreCase("first");
+                sb.setLength(0);
+                try {
+                    if (!valid) {
+                        throw new IllegalArgumentException("This is not a valid query. Try again.");
+                    }
+                    Session session = first ? sessions.getFirstSession(parts[1]) : sessions.getLastSession(parts[1]);
+                    formatter.append(sb, session).append("\n\n");
+                } catch (IllegalArgumentException | NoSuchElementException e) {
+                    metrics.increment("query.errors");
+                    sb.setLength(0);
+                    sb.append("Error: ").append(e.getMessage()).append("\n");
+                }
+                writer.append(sb);
+                // Answer in one write once every command received so far is answered
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+                (!valid ? invalidTimer : first ? firstTimer : lastTimer).record(System.nanoTime() - start);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // The client went away, nothing left to answer
+        }
+    }
+
+    /**
+     * Returns an executor that runs every task on a new virtual thread on Java
+     * 21 and later, and on the threads of a cached pool before that. The
+     * virtual thread executor is looked up by reflection, since the program
+     * is built for earlier versions too.
+     *
+     * @return the executor for the connections
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // No virtual threads, or only as a preview feature that is not enabled
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "query-connection-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -8,10 +8,12 @@ import java.util.Date;
 
 public class Record {
 
-    private int terminal;
-    private boolean login;
-    private String username;
-    private Date time;
+    private final int terminal;
+    private final boolean login;
+    // Id of the username in the global UsernameDictionary
+    private final int userId;
+    // Milliseconds since the epoch; a Date is only made when asked for
+    private final long time;
     /**
      * Constructs a new Record object with terminal number, login status, username, and time
      * @param terminal terminal number that the user used to login
@@ -20,19 +22,51 @@ public class Record {
      * @param time login or logout time
      */
     public Record(int terminal, boolean login, String username, Date time) {
+        this(terminal, login, username, toMillis(time));
+    }
+
+    /**
+     * Constructs a new Record object with terminal number, login status, username, and time
+     * @param terminal terminal number that the user used to login
+     * @param login the user's login status
+     * @param username  user's name
+     * @param time login or logout time in milliseconds since the epoch
+     */
+    public Record(int terminal, boolean login, String username, long time) {
         if (terminal <= 0) {
             throw new IllegalArgumentException("Terminal number must be a positive integer.");
         }
         if (username == null || username.isEmpty()) {
             throw new IllegalArgumentException("Username cannot be null or empty.");
         }
-        if (time == null) {
-            throw new IllegalArgumentException("Time cannot be null.");
-        }
         
         this.terminal = terminal;
         this.login = login;
-        this.username = username;
+        this.userId = UsernameDictionary.getGlobal().intern(username);
+        this.time = time;
+    }
+
+    /**
+     * Constructs a new Record object for a username that is already in the
+     * global UsernameDictionary, without looking the name up.
+     * @param terminal terminal number that the user used to login
+     * @param login the user's login status
+     * @param userId the id of the user's name in the global dictionary
+     * @param time login or logout time in milliseconds since the epoch
+     */
+    public Record(int terminal, boolean login, int userId, long time) {
+        if (terminal <= 0) {
+            throw new IllegalArgumentException("Terminal number must be a positive integer.");
+        }
+        try {
+            UsernameDictionary.getGlobal().getName(userId);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Unknown username id: " + userId);
+        }
+
+        this.terminal = terminal;
+        this.login = login;
+        this.userId = userId;
         this.time = time;
     }
 
@@ -66,15 +100,38 @@ public class Record {
      * @return username
      */
     public String getUsername() {
-        return username;
+        return UsernameDictionary.getGlobal().getName(userId);
+    }
+
+    /**
+     * Returns the id of the username in the global UsernameDictionary
+     * @return username id
+     */
+    public int getUserId() {
+        return userId;
     }
 
 
     /**
      * Returns the time associated with this record
-     * @return time
+     * @return a new Date holding the time
      */
     public Date getTime() {
+        return new Date(time);
+    }
+
+    /**
+     * Returns the time associated with this record, without creating a Date
+     * @return time in milliseconds since the epoch
+     */
+    public long getTimeMillis() {
         return time;
     }
+
+    private static long toMillis(Date time) {
+        if (time == null) {
+            throw new IllegalArgumentException("Time cannot be null.");
+        }
+        return time.getTime();
+    }
 }
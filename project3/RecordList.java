@@ -2,20 +2,459 @@
  * The RecordList class stores Record objects and allows retrieval
  * of the first and last session for a specific user.
  *
+ * Logs are almost always written in time order, so the list keeps track of
+ * whether its records are. A record that arrives slightly late, behind at most
+ * FIXUP_WINDOW later ones, is moved back into place when it is added; a record
+ * further out of order makes the list unsorted for good. While the list is
+ * sorted, records can be looked up by time with a binary search, a time range
+ * is a view of the list, and the first or last record of a user is found by
+ * scanning from the front or the back and stopping at the first match. On an
+ * unsorted list the same methods scan every record.
+ *
+ * Sessions are paired as the records arrive. A late record is only moved past
+ * records of other users or terminals, which cannot change how it is paired,
+ * so the sessions are always the ones the records give when paired in list
+ * order. A late record that would have to pass a record of its own user and
+ * terminal is appended instead, like one that is too late, and the list
+ * becomes unsorted.
+ *
+ * The list only grows: records are added with add and addAll and removed all
+ * together with clear. The other ways ArrayList has of changing a list would
+ * leave the sessions and the time order out of date, so they throw an
+ * UnsupportedOperationException, and subList returns a read-only view.
+ *
  * @author Puyuan Song
  */
 package project3;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
-public class RecordList extends ArrayList<Record> {
+public class RecordList extends ArrayList<Record> implements RecordStore {
+
+    /** How far back a late record is moved to keep the list in time order. */
+    public static final int FIXUP_WINDOW = 64;
+
+    // Sessions of every user, paired as the records are added
+    private Sessionizer sessions = new Sessionizer();
+    // Whether the records are in non-decreasing time order
+    private boolean sorted = true;
+    // Told the user of every record added
+    private CopyOnWriteArrayList<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
 
     // Default constructor to create an empty RecordList object
     public RecordList() {
         super();
     }
 
+    /**
+     * Creates a RecordList holding the records in the given order, for example
+     * ones read back from a snapshot, without moving any of them. The records
+     * are paired in list order, which gives the sessions of the list they were
+     * taken from.
+     *
+     * @param records the records, in list order
+     * @return a RecordList holding the records and their sessions
+     */
+    public static RecordList restore(Collection<Record> records) {
+        RecordList list = new RecordList();
+        list.appendAll(records);
+        for (int i = 1; i < list.size() && list.sorted; i++) {
+            list.sorted = list.get(i - 1).getTimeMillis() <= list.get(i).getTimeMillis();
+        }
+        for (Record record : list) {
+            list.sessions.accept(record);
+        }
+        return list;
+    }
+
+    /**
+     * Appends the record to the end of the list and pairs it into the sessions
+     * of its user. If the list is sorted and the record is earlier than at most
+     * FIXUP_WINDOW of the last records, none of them of the same user and
+     * terminal, it is inserted before them instead, so the list stays in time
+     * order.
+     *
+     * @param record the record to add
+     * @return true (as specified by Collection.add)
+     */
+    @Override
+    public boolean add(Record record) {
+        int size = size();
+        if (sorted && size > 0 && record.getTimeMillis() < get(size - 1).getTimeMillis()) {
+            int position = size;
+            while (position > 0 && size - position < FIXUP_WINDOW
+                    && get(position - 1).getTimeMillis() > record.getTimeMillis()
+                    && !sameTerminal(get(position - 1), record)) {
+                position--;
+            }
+            if (position == 0 || get(position - 1).getTimeMillis() <= record.getTimeMillis()) {
+                super.add(position, record);
+                MetricsRegistry.getGlobal().increment("ingest.reordered");
+            } else {
+                sorted = false;
+                MetricsRegistry.getGlobal().increment("ingest.unsorted");
+                super.add(record);
+            }
+        } else {
+            super.add(record);
+        }
+        sessions.accept(record);
+        for (AppendListener listener : appendListeners) {
+            listener.recordAppended(record.getUserId());
+        }
+        return true;
+    }
+
+    // Whether both records are of the same user on the same terminal, so their order decides the pairing
+    private static boolean sameTerminal(Record a, Record b) {
+        return a.getUserId() == b.getUserId() && a.getTerminal() == b.getTerminal();
+    }
+
+    /**
+     * Appends all of the records in the collection, keeping the sessions up to date.
+     *
+     * @param records the records to add
+     * @return true if this list changed as a result of the call
+     */
+    @Override
+    public boolean addAll(Collection<? extends Record> records) {
+        ensureCapacity(size() + records.size());
+        for (Record record : records) {
+            add(record);
+        }
+        return !records.isEmpty();
+    }
+
+    // Appends records without passing them to the Sessionizer
+    private void appendAll(Collection<? extends Record> records) {
+        super.addAll(records);
+    }
+
+    /**
+     * Not supported, records can only be appended.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void add(int index, Record record) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be appended.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean addAll(int index, Collection<? extends Record> records) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records cannot be replaced.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Record set(int index, Record record) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records cannot be replaced.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void replaceAll(UnaryOperator<Record> operator) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records cannot be reordered.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void sort(Comparator<? super Record> comparator) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be removed all at once with clear.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public Record remove(int index) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be removed all at once with clear.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(Object record) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be removed all at once with clear.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean removeAll(Collection<?> records) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be removed all at once with clear.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean retainAll(Collection<?> records) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be removed all at once with clear.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean removeIf(Predicate<? super Record> filter) {
+        throw unsupported();
+    }
+
+    /**
+     * Not supported, records can only be removed all at once with clear.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        throw unsupported();
+    }
+
+    /**
+     * Returns a read-only view of the records between the given positions.
+     *
+     * @param fromIndex the position of the first record, included
+     * @param toIndex the position after the last record
+     * @return the records between the positions
+     * @throws IndexOutOfBoundsException If a position is out of range.
+     */
+    @Override
+    public List<Record> subList(int fromIndex, int toIndex) {
+        return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("Records can only be added to a RecordList or cleared.");
+    }
+
+    /**
+     * Removes all records from the list together with their sessions, and
+     * tells the append listeners.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        sessions.clear();
+        sorted = true;
+        for (AppendListener listener : appendListeners) {
+            listener.recordsCleared();
+        }
+    }
+
+    /**
+     * Returns whether the records are in non-decreasing time order, which
+     * makes the time lookups logarithmic.
+     *
+     * @return true if the list is sorted by time
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Returns the position of the first record logged at or after the given
+     * time in a sorted list, or of the first such record at all otherwise.
+     *
+     * @param time the time in milliseconds since the epoch
+     * @return the position of the record, or the size of the list if there is none
+     */
+    public int indexOfTime(long time) {
+        if (!sorted) {
+            for (int i = 0; i < size(); i++) {
+                if (get(i).getTimeMillis() >= time) {
+                    return i;
+                }
+            }
+            return size();
+        }
+        return lowerBound(time);
+    }
+
+    /**
+     * Returns the records logged between the given times, both included. On a
+     * sorted list this is a read-only view of the list, found by binary
+     * search; otherwise it is a copy of the matching records in list order.
+     *
+     * @param start the start of the range in milliseconds since the epoch
+     * @param end the end of the range in milliseconds since the epoch
+     * @return the records in the range
+     * @throws IllegalArgumentException If start is after end.
+     */
+    public List<Record> getRecordsBetween(long start, long end) {
+        if (start > end) {
+            throw new IllegalArgumentException("Start time cannot be after end time.");
+        }
+        if (sorted) {
+            int from = lowerBound(start);
+            int to = (end == Long.MAX_VALUE) ? size() : lowerBound(end + 1);
+            return subList(from, to);
+        }
+        ArrayList<Record> found = new ArrayList<>();
+        for (Record record : this) {
+            if (record.getTimeMillis() >= start && record.getTimeMillis() <= end) {
+                found.add(record);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the earliest record of the user, login or logout. A sorted list
+     * is scanned from the front up to the first record of the user.
+     *
+     * @param user the username to look up
+     * @return the earliest record of the user
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If the user has no records.
+     */
+    public Record getFirstRecord(String user) {
+        int userId = userId(user);
+        Record first = null;
+        for (int i = 0; i < size(); i++) {
+            Record record = get(i);
+            if (record.getUserId() == userId) {
+                if (sorted) {
+                    return record;
+                }
+                if (first == null || record.getTimeMillis() < first.getTimeMillis()) {
+                    first = record;
+                }
+            }
+        }
+        if (first == null) {
+            throw new NoSuchElementException("No matching record found for user: " + user);
+        }
+        return first;
+    }
+
+    /**
+     * Returns the latest record of the user, login or logout. A sorted list
+     * is scanned from the back up to the last record of the user.
+     *
+     * @param user the username to look up
+     * @return the latest record of the user
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If the user has no records.
+     */
+    public Record getLastRecord(String user) {
+        int userId = userId(user);
+        Record last = null;
+        for (int i = size() - 1; i >= 0; i--) {
+            Record record = get(i);
+            if (record.getUserId() == userId) {
+                if (sorted) {
+                    return record;
+                }
+                if (last == null || record.getTimeMillis() >= last.getTimeMillis()) {
+                    last = record;
+                }
+            }
+        }
+        if (last == null) {
+            throw new NoSuchElementException("No matching record found for user: " + user);
+        }
+        return last;
+    }
+
+    // Returns the position of the first record at or after the time, the list must be sorted
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (get(mid).getTimeMillis() < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Validates the username and returns its id, or -1 if no record has it
+    private static int userId(String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        return UsernameDictionary.getGlobal().lookup(user);
+    }
+
+    /**
+     * Returns the sessions built from the records of this list.
+     * @return the sessions of all users
+     */
+    public Sessionizer getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Registers a listener to be told about the sessions already paired and
+     * the sessions of every record added from now on.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        Sessionizer.replay(sessions.getAllSessions(), listener);
+        sessions.addListener(listener);
+    }
+
+    /**
+     * Registers a listener to be told the user of every record added from now
+     * on, once the record can be seen by queries. Nothing is replayed to it.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addAppendListener(AppendListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        appendListeners.add(listener);
+    }
+
+    /**
+     * Returns the sessions of the given user ordered by login time.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     */
+    @Override
+    public List<Session> getSessions(String user) {
+        return sessions.getSessions(user);
+    }
+
     /**
      * Retrieves the first session for the specified user.
      * The first session is defined as the session with the earliest login time.
@@ -26,42 +465,13 @@ public class RecordList extends ArrayList<Record> {
      * @throws IllegalArgumentException If the user is null or empty.
      * @throws NoSuchElementException If no matching session for the user is found.
      */
+    @Override
     public Session getFirstSession(String user) {
         // Validate the input
         if (user == null || user.isEmpty()) {
             throw new IllegalArgumentException("Username cannot be null or empty.");
         }
-
-        Record loginRecord = null;
-        Record logoutRecord = null;
-
-        // Iterate through the list of records to find the first login and logout for the user
-        for (Record record : this) {
-            if (record.getUsername().equals(user)) {
-                if (record.isLogin()) {
-                    // If we haven't found any previous login for this user, this is the earliest one.
-                    if (loginRecord == null || record.getTime().before(loginRecord.getTime())) {
-                        loginRecord = record;
-                        logoutRecord = null; // Reset the logoutRecord to search for a new matching logout
-                    }
-                } else if (record.isLogout() && loginRecord != null && record.getTerminal() == loginRecord.getTerminal()) {
-                    // If we find a logout for the same terminal, pair it with the current login
-                    logoutRecord = record;
-                    break; 
-                }else if (record.isLogout() && loginRecord == null) {
-                    // Logout found without a prior matching login, this is an error
-                    throw new IllegalArgumentException("Found logout without a matching login for user: " + user);
-                }
-            }
-        }
-
-        // If we found a login record but no corresponding session, the user may still be logged in
-        if (loginRecord != null) {
-            return new Session(loginRecord, logoutRecord);
-        }
-
-        // If no matching user was found, throw an exception
-        throw new NoSuchElementException("No matching session found for user: " + user);
+        return sessions.getFirstSession(user);
     }
 
     /**
@@ -74,41 +484,12 @@ public class RecordList extends ArrayList<Record> {
      * @throws IllegalArgumentException If the user is null or empty.
      * @throws NoSuchElementException If no matching session for the user is found.
      */
+    @Override
     public Session getLastSession(String user) {
         // Validate the input
         if (user == null || user.isEmpty()) {
             throw new IllegalArgumentException("Username cannot be null or empty.");
         }
-
-        Record loginRecord = null;
-        Record logoutRecord = null;
-
-        // Iterate through the list of records to find the last login and logout for the user
-        for (Record record : this) {
-            if (record.getUsername().equals(user)) {
-                if (record.isLogin()) {
-                    // This is a newer login, update the login record
-                    if (loginRecord == null || record.getTime().after(loginRecord.getTime())) {
-                        loginRecord = record;
-                        logoutRecord = null; // Reset logout to search for the new matching logout
-                    }
-                } else if (record.isLogout() && loginRecord != null && record.getTerminal() == loginRecord.getTerminal()) {
-                    // Pair the login with this logout
-                    logoutRecord = record;
-                }else if (record.isLogout() && loginRecord == null) {
-                    // Logout found without a prior matching login, this is an error
-                    throw new IllegalArgumentException("Found logout without a matching login for user: " + user);
-                }
-            }
-        }
-
-        // If we found a login record but no corresponding session, the user may still be logged in
-        if (loginRecord != null) {
-            return new Session(loginRecord, logoutRecord);
-        }
-
-        // If no matching user was found, throw an exception
-        throw new NoSuchElementException("No matching session found for user: " + user);
+        return sessions.getLastSession(user);
     }
 }
-
@@ -0,0 +1,95 @@
+ /**
+ * The RecordStore interface is implemented by the classes that store the
+ * records of a log and answer the session queries of LoginStats.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public interface RecordStore {
+
+    /**
+     * Appends a record to the store.
+     *
+     * @param record the record to add
+     * @return true if the store changed as a result of the call
+     */
+    boolean add(Record record);
+
+    /**
+     * Returns the record at the given position.
+     *
+     * @param index the position of the record, in the order the records were added
+     * @return the record at the given position
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    Record get(int index);
+
+    /**
+     * Returns the number of records in the store.
+     * @return the number of records
+     */
+    int size();
+
+    /**
+     * Returns whether queries may run while another thread adds records,
+     * without the caller synchronizing on the store.
+     *
+     * @return true if the store supports concurrent queries and additions
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Registers a listener to be told about every session of the store. The
+     * sessions paired before the call are replayed to it first (see
+     * Sessionizer.replay), then it is told about the sessions of the records
+     * added later. The listener is called on the thread that adds the records.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    void addSessionListener(SessionListener listener);
+
+    /**
+     * Registers a listener to be told the user of every record added from now
+     * on. Unlike addSessionListener, nothing is replayed and no sessions are
+     * paired for it, so it is cheap to register on any store. The listener is
+     * called on the thread that adds the records, once queries can see them.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    void addAppendListener(AppendListener listener);
+
+    /**
+     * Returns the sessions of the given user ordered by login time.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     */
+    List<Session> getSessions(String user);
+
+    /**
+     * Retrieves the session with the earliest login time for the specified user.
+     *
+     * @param user The username to search for.
+     * @return The first Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    Session getFirstSession(String user);
+
+    /**
+     * Retrieves the session with the latest login time for the specified user.
+     *
+     * @param user The username to search for.
+     * @return The last Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    Session getLastSession(String user);
+}
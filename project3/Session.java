@@ -5,13 +5,12 @@
  */
 package project3;
 import java.util.Date;
-import java.util.concurrent.TimeUnit;
 
 public class Session {
 
     // Private fields
-    private Record login;
-    private Record logout;
+    private final Record login;
+    private final Record logout;
 
     /**
      * Constructs a Session object based on a login and logout record.
@@ -34,7 +33,7 @@ public class Session {
             if (!logout.isLogout()) {
                 throw new IllegalArgumentException("Invalid Logout status");
             }
-            if (!login.getUsername().equals(logout.getUsername())) {
+            if (login.getUserId() != logout.getUserId()) {
                 throw new IllegalArgumentException("Usernames must match for a valid session.");
             }
             
@@ -42,7 +41,7 @@ public class Session {
                 throw new IllegalArgumentException("Terminal numbers must match for a valid session.");
             }
 
-            if (login.getTime().after(logout.getTime())) {
+            if (login.getTimeMillis() > logout.getTimeMillis()) {
                 throw new IllegalArgumentException("Login time cannot be after logout time.");
             }
         }
@@ -52,6 +51,20 @@ public class Session {
     }
 
     // Getter methods (Accessors)
+    /**
+     * Returns the login record.
+     * @return The login record.
+     */
+    public Record getLogin() {
+        return login;
+    }
+    /**
+     * Returns the logout record.
+     * @return The logout record, or null if the session is still active.
+     */
+    public Record getLogout() {
+        return logout;
+    }
     /**
      * Returns the terminal.
      * @return The terminal number.
@@ -73,6 +86,20 @@ public class Session {
     public Date getLogoutTime() {
         return (logout != null) ? logout.getTime() : null;
     }
+    /**
+     * Returns the login time without creating a Date.
+     * @return the login time in milliseconds since the epoch.
+     */
+    public long getLoginMillis() {
+        return login.getTimeMillis();
+    }
+    /**
+     * Returns the logout time without creating a Date.
+     * @return the logout time in milliseconds since the epoch, or -1 if the session is still active.
+     */
+    public long getLogoutMillis() {
+        return (logout != null) ? logout.getTimeMillis() : -1;
+    }
     /**
      * Returns the username time.
      * @return the username time.
@@ -80,6 +107,13 @@ public class Session {
     public String getUsername() {
         return login.getUsername();
     }
+    /**
+     * Returns the id of the username in the global UsernameDictionary.
+     * @return the username id.
+     */
+    public int getUserId() {
+        return login.getUserId();
+    }
 
     /**
      * Gets the duration of the session in milliseconds.
@@ -91,7 +125,7 @@ public class Session {
         if (logout == null) {
             return -1; // Active session
         }
-        return logout.getTime().getTime() - login.getTime().getTime();
+        return logout.getTimeMillis() - login.getTimeMillis();
     }
 
    /**
@@ -101,12 +135,8 @@ public class Session {
      * @param durationInMillis The duration in milliseconds.
      * @return A formatted string representing the duration in "days, hours, minutes, seconds".
      */
-    private String formatDuration(long durationInMillis) {
-        long days = TimeUnit.MILLISECONDS.toDays(durationInMillis);
-        long hours = TimeUnit.MILLISECONDS.toHours(durationInMillis) % 24;
-        long minutes = TimeUnit.MILLISECONDS.toMinutes(durationInMillis) % 60;
-        long seconds = TimeUnit.MILLISECONDS.toSeconds(durationInMillis) % 60;
-        return String.format("%d days, %d hours, %d minutes, %d seconds", days, hours, minutes, seconds);
+    public static String formatDuration(long durationInMillis) {
+        return SessionFormatter.appendDuration(new StringBuilder(48), durationInMillis).toString();
     }
 
     
@@ -115,25 +145,13 @@ public class Session {
      * If the session is still active, "active session" is displayed as the duration
      * and "still logged in" is displayed as the logout time.
      * 
+     * Use a SessionFormatter to write many sessions without a String for each.
+     *
      * @return A formatted string representing the session details.
      */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(login.getUsername()).append(", terminal ").append(login.getTerminal()).append(", ");
-        
-        // If the session is active, display "active session" and no logout time.
-        if (logout == null) {
-            sb.append("duration active session\n");
-            sb.append("  logged in: ").append(login.getTime().toString()).append("\n");
-            sb.append("  logged out: still logged in");
-        } else {
-            // Otherwise, display the formatted duration and logout time.
-            sb.append("duration ").append(formatDuration(getDuration())).append("\n");
-            sb.append("  logged in: ").append(login.getTime().toString()).append("\n");
-            sb.append("  logged out: ").append(logout.getTime().toString());
-        }
-        return sb.toString();
+        return SessionFormatter.getDefault().append(new StringBuilder(160), this).toString();
     }
 }
 
@@ -0,0 +1,198 @@
+ /**
+ * The SessionCache keeps the answers to recent first and last queries, so a
+ * user asked about again is answered without looking up the records. It holds
+ * at most a fixed number of answers, keyed by the query and the user, and
+ * drops the least recently used one when it is full.
+ *
+ * The cache is kept correct as an AppendListener: a record added for a user
+ * drops the cached answers of that user only, and clearing the store drops
+ * them all. Being told of the records appended rather than of the sessions,
+ * it can be registered on any store without pairing the records already
+ * loaded, and a miss is answered by the store's own first or last lookup,
+ * holding the lock records are added under unless the store is concurrent.
+ * Every user has a version that each record added for it bumps, so a lookup
+ * that raced with a record of the same user is answered but not cached, while
+ * records of other users arriving meanwhile do not keep it out. Hits and
+ * misses are counted in the global MetricsRegistry as cache.session.hit and
+ * cache.session.miss.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SessionCache implements AppendListener {
+
+    /** The number of answers kept unless another capacity is given. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private RecordStore records;
+    private LinkedHashMap<Long, Session> answers;
+    // Records added per username id, to tell whether a lookup raced with one of the same user
+    private int[] versions = new int[64];
+    // Counts the times the cache or the store was cleared, which changes every user
+    private long clears;
+
+    /**
+     * Constructs a new SessionCache that holds DEFAULT_CAPACITY answers.
+     *
+     * @param records the records the sessions are looked up in
+     * @throws IllegalArgumentException If the records are null.
+     */
+    public SessionCache(RecordStore records) {
+        this(records, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new SessionCache.
+     *
+     * @param records the records the sessions are looked up in
+     * @param capacity the largest number of answers kept
+     * @throws IllegalArgumentException If the records are null or the capacity is not positive.
+     */
+    public SessionCache(RecordStore records, int capacity) {
+        if (records == null) {
+            throw new IllegalArgumentException("Records cannot be null.");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be a positive integer.");
+        }
+        this.records = records;
+        this.answers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Session> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Constructs a new SessionCache that holds DEFAULT_CAPACITY answers and
+     * registers it as an append listener of the store, under the lock records
+     * are added under.
+     *
+     * @param records the records the sessions are looked up in
+     * @return the cache, kept up to date with the records added from now on
+     * @throws IllegalArgumentException If the records are null.
+     */
+    public static SessionCache attach(RecordStore records) {
+        SessionCache cache = new SessionCache(records);
+        synchronized (records) {
+            records.addAppendListener(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the session with the earliest login time for the given user.
+     *
+     * @param user the username to look up
+     * @return the first session of the user
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If the user has no sessions.
+     */
+    public Session getFirstSession(String user) {
+        return getSession(true, user);
+    }
+
+    /**
+     * Returns the session with the latest login time for the given user.
+     *
+     * @param user the username to look up
+     * @return the last session of the user
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If the user has no sessions.
+     */
+    public Session getLastSession(String user) {
+        return getSession(false, user);
+    }
+
+    /**
+     * Returns the number of answers held.
+     * @return the size of the cache
+     */
+    public synchronized int size() {
+        return answers.size();
+    }
+
+    /**
+     * Drops all answers.
+     */
+    public synchronized void clear() {
+        answers.clear();
+        clears++;
+    }
+
+    /**
+     * Drops the answers of the user a record was added for.
+     *
+     * @param userId the id of the username of the record
+     */
+    @Override
+    public synchronized void recordAppended(int userId) {
+        if (userId >= versions.length) {
+            versions = Arrays.copyOf(versions, Math.max(userId + 1, versions.length * 2));
+        }
+        versions[userId]++;
+        if (!answers.isEmpty()) {
+            answers.remove(key(true, userId));
+            answers.remove(key(false, userId));
+        }
+    }
+
+    /**
+     * Drops all answers, the records they came from are gone.
+     */
+    @Override
+    public void recordsCleared() {
+        clear();
+    }
+
+    private Session getSession(boolean first, String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        int userId = UsernameDictionary.getGlobal().lookup(user);
+        int seenVersion;
+        long seenClears;
+        synchronized (this) {
+            Session session = (userId >= 0) ? answers.get(key(first, userId)) : null;
+            if (session != null) {
+                MetricsRegistry.getGlobal().increment("cache.session.hit");
+                return session;
+            }
+            seenVersion = version(userId);
+            seenClears = clears;
+        }
+        MetricsRegistry.getGlobal().increment("cache.session.miss");
+        Session session = lookup(first, user);
+        synchronized (this) {
+            // A user unknown before the lookup got its first records during it
+            if (userId >= 0 && version(userId) == seenVersion && clears == seenClears) {
+                answers.put(key(first, userId), session);
+            }
+        }
+        return session;
+    }
+
+    // Looks up a session in the store, holding the lock records are added under unless the store is concurrent
+    private Session lookup(boolean first, String user) {
+        if (records.isConcurrent()) {
+            return first ? records.getFirstSession(user) : records.getLastSession(user);
+        }
+        synchronized (records) {
+            return first ? records.getFirstSession(user) : records.getLastSession(user);
+        }
+    }
+
+    private int version(int userId) {
+        return (userId >= 0 && userId < versions.length) ? versions[userId] : 0;
+    }
+
+    // The first and last answers of a user sit next to each other
+    private static long key(boolean first, int userId) {
+        return ((long) userId << 1) | (first ? 0 : 1);
+    }
+}
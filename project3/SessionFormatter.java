@@ -0,0 +1,208 @@
+ /**
+ * The SessionFormatter writes the details of sessions in the same format as
+ * Session.toString, straight into a StringBuilder or any other Appendable, so
+ * that printing many sessions does not build a String per session.
+ *
+ * Times are written as Date.toString writes them, "EEE MMM dd HH:mm:ss zzz yyyy"
+ * in the default time zone at the time the formatter was made. Date.toString
+ * converts every time through a calendar; the formatter instead caches the
+ * parts that stay the same over a day, the day and month names and the zone
+ * name and year, together with the range of times they hold for, and only
+ * works out the hours, minutes and seconds. The range ends early at a change
+ * of the zone's offset, so daylight saving changes are written like Date does.
+ * The cache is replaced as a whole, so a formatter can be shared by threads.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class SessionFormatter {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final String[] DAY_NAMES = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+    private static final String[] MONTH_NAMES = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    // Shared by Session.toString
+    private static final SessionFormatter DEFAULT = new SessionFormatter();
+
+    private final TimeZone zone;
+    private final ZoneRules rules;
+    private volatile Day day;
+
+    // Default constructor to create a SessionFormatter for the current default time zone
+    public SessionFormatter() {
+        this.zone = TimeZone.getDefault();
+        ZoneRules zoneRules = null;
+        try {
+            zoneRules = zone.toZoneId().getRules();
+        } catch (DateTimeException e) {
+            // A custom zone without rules; every time is checked against the zone itself
+        }
+        this.rules = zoneRules;
+        this.day = newDay(0);
+    }
+
+    /**
+     * Returns the formatter used by Session.toString.
+     * @return the shared formatter for the default time zone
+     */
+    public static SessionFormatter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Appends the details of a session, as Session.toString returns them.
+     *
+     * @param sb the builder to append to
+     * @param session the session to format
+     * @return the builder
+     * @throws IllegalArgumentException If the builder or the session is null.
+     */
+    public StringBuilder append(StringBuilder sb, Session session) {
+        if (sb == null) {
+            throw new IllegalArgumentException("Builder cannot be null.");
+        }
+        if (session == null) {
+            throw new IllegalArgumentException("Session cannot be null.");
+        }
+        sb.append(session.getUsername()).append(", terminal ").append(session.getTerminal()).append(", ");
+        if (session.getLogout() == null) {
+            sb.append("duration active session\n");
+            sb.append("  logged in: ");
+            appendTime(sb, session.getLoginMillis()).append("\n");
+            sb.append("  logged out: still logged in");
+        } else {
+            sb.append("duration ");
+            appendDuration(sb, session.getDuration()).append("\n");
+            sb.append("  logged in: ");
+            appendTime(sb, session.getLoginMillis()).append("\n");
+            sb.append("  logged out: ");
+            appendTime(sb, session.getLogoutMillis());
+        }
+        return sb;
+    }
+
+    /**
+     * Writes the details of a session, as Session.toString returns them.
+     *
+     * @param session the session to format
+     * @param out where to write the details
+     * @throws IllegalArgumentException If the session or the output is null.
+     * @throws IOException If the output cannot be written.
+     */
+    public void format(Session session, Appendable out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Output cannot be null.");
+        }
+        if (out instanceof StringBuilder) {
+            append((StringBuilder) out, session);
+        } else {
+            out.append(append(new StringBuilder(160), session));
+        }
+    }
+
+    /**
+     * Appends a time as Date.toString writes it in the formatter's time zone.
+     *
+     * @param sb the builder to append to
+     * @param time the time in milliseconds since the epoch
+     * @return the builder
+     */
+    public StringBuilder appendTime(StringBuilder sb, long time) {
+        Day current = day;
+        if (time < current.from || time >= current.until) {
+            current = newDay(time);
+            day = current;
+        }
+        int millisOfDay = (int) Math.floorMod(time + current.offset, MILLIS_PER_DAY);
+        int seconds = millisOfDay / 1000;
+        sb.append(current.prefix);
+        appendTwoDigits(sb, seconds / 3600).append(':');
+        appendTwoDigits(sb, seconds / 60 % 60).append(':');
+        appendTwoDigits(sb, seconds % 60);
+        return sb.append(current.suffix);
+    }
+
+    /**
+     * Appends a duration as Session.formatDuration returns it, in days, hours,
+     * minutes and seconds.
+     *
+     * @param sb the builder to append to
+     * @param durationInMillis the duration in milliseconds
+     * @return the builder
+     */
+    public static StringBuilder appendDuration(StringBuilder sb, long durationInMillis) {
+        long seconds = durationInMillis / 1000;
+        return sb.append(seconds / 86400).append(" days, ")
+                .append(seconds / 3600 % 24).append(" hours, ")
+                .append(seconds / 60 % 60).append(" minutes, ")
+                .append(seconds % 60).append(" seconds");
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    // Works out the parts of the times around the given one that Date.toString writes the same
+    private Day newDay(long time) {
+        int offset = zone.getOffset(time);
+        long from = Math.floorDiv(time + offset, MILLIS_PER_DAY) * MILLIS_PER_DAY - offset;
+        long until = from + MILLIS_PER_DAY;
+        if (rules != null) {
+            ZoneOffsetTransition previous = rules.previousTransition(Instant.ofEpochMilli(time).plusMillis(1));
+            if (previous != null) {
+                from = Math.max(from, previous.getInstant().toEpochMilli());
+            }
+            ZoneOffsetTransition next = rules.nextTransition(Instant.ofEpochMilli(time));
+            if (next != null) {
+                until = Math.min(until, next.getInstant().toEpochMilli());
+            }
+        }
+        // The rules of a custom zone may disagree with it; then only cache the second
+        boolean daylight = zone.inDaylightTime(new Date(time));
+        if (zone.getOffset(from) != offset || zone.getOffset(until - 1) != offset
+                || zone.inDaylightTime(new Date(from)) != daylight
+                || zone.inDaylightTime(new Date(until - 1)) != daylight) {
+            from = time - Math.floorMod(time, 1000);
+            until = from + 1000;
+        }
+
+        Calendar calendar = Calendar.getInstance(zone, Locale.US);
+        calendar.setTimeInMillis(time);
+        StringBuilder prefix = new StringBuilder(11);
+        prefix.append(DAY_NAMES[calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY]).append(' ')
+                .append(MONTH_NAMES[calendar.get(Calendar.MONTH)]).append(' ');
+        appendTwoDigits(prefix, calendar.get(Calendar.DAY_OF_MONTH)).append(' ');
+        String suffix = " " + zone.getDisplayName(daylight, TimeZone.SHORT, Locale.US) + " " + calendar.get(Calendar.YEAR);
+        return new Day(from, until, offset, prefix.toString(), suffix);
+    }
+
+    /* The parts of the times in [from, until) that stay the same. */
+    private static class Day {
+        final long from;
+        final long until;
+        final int offset;
+        // "EEE MMM dd " and " zzz yyyy"
+        final String prefix;
+        final String suffix;
+
+        Day(long from, long until, int offset, String prefix, String suffix) {
+            this.from = from;
+            this.until = until;
+            this.offset = offset;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+ /**
+ * The SessionListener interface is implemented by the classes that want to be
+ * told about sessions as a Sessionizer pairs them.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+
+public interface SessionListener {
+
+    /**
+     * Called when a login record opens a new session.
+     *
+     * @param session the new active session
+     */
+    void sessionOpened(Session session);
+
+    /**
+     * Called when a logout record closes an active session.
+     *
+     * @param active the session as it was while active
+     * @param closed the same session with its logout record
+     */
+    void sessionClosed(Session active, Session closed);
+}
@@ -0,0 +1,374 @@
+ /**
+ * The SessionStats keeps running statistics of the sessions of a log as they
+ * are paired: the number of sessions and the total and average duration per
+ * user, how many sessions were active at the same time at most, how busy each
+ * terminal was, and a sketch of the session durations for percentiles.
+ *
+ * Everything is updated in constant time per session as a SessionListener, so
+ * the statistics are ready without another pass over the log and stay current
+ * in follow mode. The users and terminals are also kept sorted by their
+ * totals for the top queries: a session only notes which totals changed, and
+ * a query puts just those back in order, so it does not scan every user.
+ * Concurrency and terminal use are measured in the order the sessions are
+ * reported, which is time order for logs written in time order. A session
+ * whose user logged in on its terminal again without logging out is reported
+ * closed at that login, so it counts as ended there rather than as active for
+ * the rest of the log.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class SessionStats implements SessionListener {
+
+    // Indexed by username id
+    private UserStats[] users = new UserStats[16];
+    private int userCount;
+    private TreeMap<Integer, TerminalStats> terminals = new TreeMap<>();
+    private DurationSketch durations = new DurationSketch();
+    // Users by total time and terminals by sessions, most first
+    private Ranking<UserStats> userRanking = new Ranking<>(Comparator.comparing(user -> user.name));
+    private Ranking<TerminalStats> terminalRanking = new Ranking<>(Comparator.comparingInt(terminal -> terminal.number));
+
+    private int sessionCount;
+    private int activeCount;
+    private long totalDuration;
+    private int concurrent;
+    private int peakConcurrent;
+    private long peakTime;
+    // The earliest and latest login or logout seen
+    private long firstTime = Long.MAX_VALUE;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Counts a new active session.
+     *
+     * @param session the new active session
+     */
+    @Override
+    public synchronized void sessionOpened(Session session) {
+        long time = session.getLoginMillis();
+        observe(time);
+        int userId = session.getUserId();
+        if (userId >= users.length) {
+            users = Arrays.copyOf(users, Math.max(userId + 1, users.length * 2));
+        }
+        UserStats user = users[userId];
+        if (user == null) {
+            user = users[userId] = new UserStats(UsernameDictionary.getGlobal().getName(userId));
+            userCount++;
+            userRanking.changed(user);
+        }
+        user.sessions++;
+        user.active++;
+        sessionCount++;
+        activeCount++;
+        concurrent++;
+        if (concurrent > peakConcurrent) {
+            peakConcurrent = concurrent;
+            peakTime = time;
+        }
+        TerminalStats terminal = terminals.computeIfAbsent(session.getTerminal(), TerminalStats::new);
+        terminal.open(time);
+        terminalRanking.changed(terminal);
+    }
+
+    /**
+     * Counts the duration of a session that was closed.
+     *
+     * @param active the session as it was while active
+     * @param closed the same session with its logout record
+     */
+    @Override
+    public synchronized void sessionClosed(Session active, Session closed) {
+        long time = closed.getLogoutMillis();
+        long duration = closed.getDuration();
+        observe(time);
+        UserStats user = users[closed.getUserId()];
+        user.active--;
+        user.totalDuration += duration;
+        user.longest = Math.max(user.longest, duration);
+        userRanking.changed(user);
+        activeCount--;
+        totalDuration += duration;
+        durations.add(duration);
+        concurrent--;
+        terminals.get(closed.getTerminal()).close(time);
+    }
+
+    /**
+     * Returns the number of sessions counted, active ones included.
+     * @return the number of sessions
+     */
+    public synchronized int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Returns the largest number of sessions that were active at the same time.
+     * @return the peak number of concurrent sessions
+     */
+    public synchronized int getPeakConcurrency() {
+        return peakConcurrent;
+    }
+
+    /**
+     * Returns a copy of the sketch of the durations of the closed sessions.
+     * @return the duration sketch
+     */
+    public synchronized DurationSketch getDurations() {
+        DurationSketch copy = new DurationSketch();
+        copy.merge(durations);
+        return copy;
+    }
+
+    /**
+     * Returns the fraction of the time covered by the log during which the
+     * terminal had at least one active session.
+     *
+     * @param terminal the terminal number
+     * @return the utilization of the terminal, between 0 and 1
+     */
+    public synchronized double getUtilization(int terminal) {
+        TerminalStats stats = terminals.get(terminal);
+        return (stats != null) ? stats.utilization() : 0;
+    }
+
+    /**
+     * Returns the users with the most total time in closed sessions, most
+     * first. Users with the same time are ordered by name.
+     *
+     * @param k the number of users to return
+     * @return up to k usernames with their total time in milliseconds
+     * @throws IllegalArgumentException If k is not positive.
+     */
+    public synchronized List<Map.Entry<String, Long>> topUsers(int k) {
+        ArrayList<Map.Entry<String, Long>> top = new ArrayList<>();
+        for (UserStats user : userRanking.top(k)) {
+            top.add(new AbstractMap.SimpleImmutableEntry<>(user.name, user.totalDuration));
+        }
+        return top;
+    }
+
+    /**
+     * Returns the terminals with the most sessions, most first. Terminals with
+     * the same number of sessions are ordered by number.
+     *
+     * @param k the number of terminals to return
+     * @return up to k terminal numbers with their number of sessions
+     * @throws IllegalArgumentException If k is not positive.
+     */
+    public synchronized List<Map.Entry<Integer, Integer>> topTerminals(int k) {
+        ArrayList<Map.Entry<Integer, Integer>> top = new ArrayList<>();
+        for (TerminalStats terminal : terminalRanking.top(k)) {
+            top.add(new AbstractMap.SimpleImmutableEntry<>(terminal.number, terminal.sessions));
+        }
+        return top;
+    }
+
+    /**
+     * Describes the sessions of one user: how many there are and how long
+     * they lasted.
+     *
+     * @param user the username to look up
+     * @return the statistics of the user, one item per line
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If the user has no sessions.
+     */
+    public synchronized String describe(String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        int userId = UsernameDictionary.getGlobal().lookup(user);
+        UserStats stats = (userId >= 0 && userId < users.length) ? users[userId] : null;
+        if (stats == null) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(user).append(", ").append(stats.sessions).append(" sessions, ")
+                .append(stats.active).append(" active\n");
+        int closed = stats.sessions - stats.active;
+        if (closed == 0) {
+            sb.append("  no closed sessions");
+            return sb.toString();
+        }
+        sb.append("  total time: ").append(Session.formatDuration(stats.totalDuration)).append("\n");
+        sb.append("  average duration: ").append(Session.formatDuration(stats.totalDuration / closed)).append("\n");
+        sb.append("  longest session: ").append(Session.formatDuration(stats.longest));
+        return sb.toString();
+    }
+
+    /**
+     * Describes all sessions: their number, peak concurrency, duration
+     * percentiles and the utilization of every terminal.
+     *
+     * @return the statistics of the log, one item per line
+     * @throws NoSuchElementException If there are no sessions.
+     */
+    public synchronized String describe() {
+        if (sessionCount == 0) {
+            throw new NoSuchElementException("No sessions found.");
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(sessionCount).append(" sessions, ").append(activeCount).append(" active, by ")
+                .append(userCount).append(" users on ").append(terminals.size()).append(" terminals\n");
+        sb.append("  peak concurrency: ").append(peakConcurrent).append(" sessions at ")
+                .append(new Date(peakTime)).append("\n");
+        int closed = sessionCount - activeCount;
+        if (closed == 0) {
+            sb.append("  no closed sessions\n");
+        } else {
+            sb.append("  average duration: ").append(Session.formatDuration(totalDuration / closed)).append("\n");
+            sb.append("  median duration: ").append(Session.formatDuration(durations.quantile(0.5))).append("\n");
+            sb.append("  90th percentile: ").append(Session.formatDuration(durations.quantile(0.9))).append("\n");
+            sb.append("  99th percentile: ").append(Session.formatDuration(durations.quantile(0.99))).append("\n");
+        }
+        for (Map.Entry<Integer, TerminalStats> entry : terminals.entrySet()) {
+            TerminalStats stats = entry.getValue();
+            sb.append(String.format("  terminal %d: %.1f%% busy, %d sessions\n",
+                    entry.getKey(), stats.utilization() * 100, stats.sessions));
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    private void observe(long time) {
+        firstTime = Math.min(firstTime, time);
+        lastTime = Math.max(lastTime, time);
+    }
+
+    /* Statistics ranked by one of their values, which is remembered while they are in a Ranking. */
+    private abstract static class Ranked {
+        long rankedValue;
+        boolean ranked;
+        boolean changed;
+
+        abstract long value();
+    }
+
+    /*
+     * Keeps statistics sorted by their value, most first. A change is only
+     * noted, and the statistics that changed are put back in order on the next
+     * query, so a change takes constant time and a query sorts only what
+     * changed since the last one.
+     */
+    private static class Ranking<R extends Ranked> {
+        private TreeSet<R> sorted;
+        private ArrayList<R> changed = new ArrayList<>();
+
+        Ranking(Comparator<R> ties) {
+            Comparator<R> byValue = (a, b) -> Long.compare(b.rankedValue, a.rankedValue);
+            sorted = new TreeSet<>(byValue.thenComparing(ties));
+        }
+
+        void changed(R stats) {
+            if (!stats.changed) {
+                stats.changed = true;
+                changed.add(stats);
+            }
+        }
+
+        List<R> top(int k) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("Count must be a positive integer.");
+            }
+            for (R stats : changed) {
+                if (stats.ranked) {
+                    sorted.remove(stats);
+                }
+                stats.rankedValue = stats.value();
+                stats.ranked = true;
+                stats.changed = false;
+                sorted.add(stats);
+            }
+            changed.clear();
+            ArrayList<R> top = new ArrayList<>(Math.min(k, sorted.size()));
+            for (R stats : sorted) {
+                if (top.size() == k) {
+                    break;
+                }
+                top.add(stats);
+            }
+            return top;
+        }
+    }
+
+    /* Counts of the sessions of a single user. */
+    private static class UserStats extends Ranked {
+        final String name;
+        int sessions;
+        int active;
+        long totalDuration;
+        long longest;
+
+        UserStats(String name) {
+            this.name = name;
+        }
+
+        @Override
+        long value() {
+            return totalDuration;
+        }
+    }
+
+    /* Time a single terminal was in use. */
+    private class TerminalStats extends Ranked {
+        final int number;
+        int sessions;
+        int open;
+        // When the terminal last got busy, or the busy time was last counted
+        long since;
+        long busy;
+
+        TerminalStats(int number) {
+            this.number = number;
+        }
+
+        @Override
+        long value() {
+            return sessions;
+        }
+
+        void open(long time) {
+            if (open > 0) {
+                count(time);
+            } else {
+                since = time;
+            }
+            open++;
+            sessions++;
+        }
+
+        void close(long time) {
+            count(time);
+            open--;
+        }
+
+        // Adds the time since the last change, ignoring times logged out of order
+        private void count(long time) {
+            if (time > since) {
+                busy += time - since;
+                since = time;
+            }
+        }
+
+        double utilization() {
+            long span = lastTime - firstTime;
+            if (span <= 0) {
+                return (open > 0) ? 1 : 0;
+            }
+            long total = busy + ((open > 0 && lastTime > since) ? lastTime - since : 0);
+            return Math.min(1.0, (double) total / span);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+ /**
+ * The Sessionizer pairs login and logout records into Session objects in a
+ * single pass. Open logins are tracked per user and terminal, so every record
+ * is looked at exactly once and the resulting sessions (including the ones that
+ * are still active) can be reused by any number of queries.
+ *
+ * A login on a terminal where the user already has a session open means the
+ * logout of that session was never logged: of the two sessions, the earlier
+ * one is closed when the later one begins, with a logout record made up for
+ * that time, so no session stays active past a later login on its terminal.
+ *
+ * SessionListeners are told about every session that is opened or closed. A
+ * Sessionizer that does not retain its sessions only tracks the open logins
+ * and leaves keeping the sessions to its listeners.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class Sessionizer {
+
+    // Sessions and open logins of every user seen so far, indexed by username id - userBase,
+    // so a Sessionizer fed the records of a single user stays small
+    private UserSessions[] users = new UserSessions[16];
+    private int userBase;
+    private int userLimit; // one past the largest username id seen, 0 if none
+    private int sessionCount;
+    private int unmatchedLogouts;
+    private boolean retainSessions;
+    private CopyOnWriteArrayList<SessionListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Default constructor to create an empty Sessionizer object that retains its sessions
+    public Sessionizer() {
+        this(true);
+    }
+
+    /**
+     * Constructs an empty Sessionizer.
+     *
+     * @param retainSessions whether the sessions are kept for the query methods;
+     *        if false, they are only passed on to the listeners
+     */
+    public Sessionizer(boolean retainSessions) {
+        this.retainSessions = retainSessions;
+    }
+
+    /**
+     * Registers a listener to be told about every session opened or closed from
+     * now on.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    public void addListener(SessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Builds the sessions of all the given records in one pass.
+     *
+     * @param records the records to pair, in the order they were logged
+     * @return a Sessionizer holding the sessions of the records
+     */
+    public static Sessionizer sessionize(Iterable<Record> records) {
+        Sessionizer sessionizer = new Sessionizer();
+        for (Record record : records) {
+            sessionizer.accept(record);
+        }
+        return sessionizer;
+    }
+
+    /**
+     * Tells a listener about sessions that were paired before it was registered.
+     * The sessions are opened in login order and the closed ones are closed in
+     * logout order, interleaved as a Sessionizer reading the log in time order
+     * would have reported them. Closed sessions are first reported as opened
+     * through an active copy, which is then passed to sessionClosed.
+     *
+     * @param sessions the sessions to report
+     * @param listener the listener to tell about them
+     */
+    public static void replay(Collection<Session> sessions, SessionListener listener) {
+        Session[] opened = sessions.toArray(new Session[0]);
+        long[] times = new long[opened.length];
+        for (int i = 0; i < opened.length; i++) {
+            times[i] = opened[i].getLoginMillis();
+        }
+        int[] opening = timeOrder(times, opened.length);
+
+        // Positions of the closed sessions, and their logout times
+        int[] closedAt = new int[opened.length];
+        int closed = 0;
+        for (int i = 0; i < opened.length; i++) {
+            if (opened[i].getLogout() != null) {
+                times[closed] = opened[i].getLogoutMillis();
+                closedAt[closed++] = i;
+            }
+        }
+        int[] closing = timeOrder(times, closed);
+
+        // The active version each session was opened as
+        Session[] actives = new Session[opened.length];
+        int next = 0;
+        for (int i : opening) {
+            long login = opened[i].getLoginMillis();
+            while (next < closed && times[closing[next]] < login) {
+                int j = closedAt[closing[next++]];
+                listener.sessionClosed(actives[j], opened[j]);
+            }
+            actives[i] = (opened[i].getLogout() == null) ? opened[i] : new Session(opened[i].getLogin(), null);
+            listener.sessionOpened(actives[i]);
+        }
+        while (next < closed) {
+            int j = closedAt[closing[next++]];
+            listener.sessionClosed(actives[j], opened[j]);
+        }
+    }
+
+    /**
+     * Returns the positions of the first count times in ascending time order,
+     * keeping the positions of equal times in order. When the times are close
+     * enough together, which they are in any real log, each is packed with its
+     * position into one long and the longs are sorted directly.
+     *
+     * @param times the times, in milliseconds
+     * @param count the number of times to sort
+     * @return the positions of the times, in time order
+     */
+    static int[] timeOrder(long[] times, int count) {
+        int[] order = new int[count];
+        if (count == 0) {
+            return order;
+        }
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, times[i]);
+            max = Math.max(max, times[i]);
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(count - 1);
+        long range = max - min;
+        if (range >= 0 && (range >>> (63 - bits)) == 0) {
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((times[i] - min) << bits) | i;
+            }
+            Arrays.sort(packed);
+            long mask = (1L << bits) - 1;
+            for (int i = 0; i < count; i++) {
+                order[i] = (int) (packed[i] & mask);
+            }
+            return order;
+        }
+        Integer[] positions = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, Comparator.comparingLong(i -> times[i]));
+        for (int i = 0; i < count; i++) {
+            order[i] = positions[i];
+        }
+        return order;
+    }
+
+    /**
+     * Processes the next record of the log.
+     * A login opens a new active session on its terminal, first closing the
+     * session the user still had open there at the time of the new login. A
+     * logout closes the session that is open for the same user and terminal; a
+     * logout without such a session is counted as unmatched and otherwise ignored.
+     *
+     * @param record the record to process
+     * @throws IllegalArgumentException If the record is null.
+     */
+    public void accept(Record record) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record cannot be null.");
+        }
+
+        if (record.isLogin()) {
+            UserSessions user = getOrAdd(record.getUserId());
+            Session active = new Session(record, null);
+            Session superseded = user.open.get(record.getTerminal());
+            if (superseded != null && record.getTimeMillis() < superseded.getLoginMillis()) {
+                // Logged before the session open on its terminal, so it ended when that one began
+                open(user, active);
+                close(user, active, logout(record, superseded.getLoginMillis()));
+                return;
+            }
+            if (superseded != null) {
+                close(user, superseded, logout(record, record.getTimeMillis()));
+            }
+            user.open.put(record.getTerminal(), active);
+            open(user, active);
+            return;
+        }
+
+        UserSessions user = get(record.getUserId());
+        Session active = (user != null) ? user.open.remove(record.getTerminal()) : null;
+        if (active == null) {
+            unmatchedLogouts++;
+            return;
+        }
+        if (record.getTimeMillis() < active.getLoginMillis()) {
+            // Logout logged before the login it would close, keep the session open
+            user.open.put(record.getTerminal(), active);
+            unmatchedLogouts++;
+            return;
+        }
+        close(user, active, record);
+    }
+
+    private void open(UserSessions user, Session active) {
+        if (retainSessions) {
+            user.insert(active);
+        }
+        sessionCount++;
+        for (SessionListener listener : listeners) {
+            listener.sessionOpened(active);
+        }
+    }
+
+    private void close(UserSessions user, Session active, Record logout) {
+        Session closed = new Session(active.getLogin(), logout);
+        if (retainSessions) {
+            user.replace(active, closed);
+        }
+        for (SessionListener listener : listeners) {
+            listener.sessionClosed(active, closed);
+        }
+    }
+
+    // A logout record for the terminal of the login, at the given time
+    private static Record logout(Record login, long time) {
+        return new Record(login.getTerminal(), false, login.getUserId(), time);
+    }
+
+    /**
+     * Returns the sessions of the given user ordered by login time.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     */
+    public List<Session> getSessions(String user) {
+        UserSessions sessions = get(user);
+        if (sessions == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(sessions.sessions);
+    }
+
+    /**
+     * Returns the sessions of all users, grouped by user and ordered by login
+     * time within each user.
+     *
+     * @return all sessions built so far
+     */
+    public List<Session> getAllSessions() {
+        ArrayList<Session> all = new ArrayList<>(sessionCount);
+        for (int i = 0; i < userLimit - userBase; i++) {
+            if (users[i] != null) {
+                all.addAll(users[i].sessions);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the session with the earliest login time for the given user.
+     *
+     * @param user the username to look up
+     * @return the first session of the user
+     * @throws NoSuchElementException If the user has no sessions.
+     */
+    public Session getFirstSession(String user) {
+        UserSessions sessions = get(user);
+        if (sessions == null || sessions.sessions.isEmpty()) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        return sessions.sessions.get(0);
+    }
+
+    /**
+     * Returns the session with the latest login time for the given user.
+     *
+     * @param user the username to look up
+     * @return the last session of the user
+     * @throws NoSuchElementException If the user has no sessions.
+     */
+    public Session getLastSession(String user) {
+        UserSessions sessions = get(user);
+        if (sessions == null || sessions.sessions.isEmpty()) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        return sessions.sessions.get(sessions.sessions.size() - 1);
+    }
+
+    /**
+     * Returns the number of sessions built so far, active ones included.
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Returns the number of logout records that did not close any session.
+     * @return the number of unmatched logouts
+     */
+    public int getUnmatchedLogouts() {
+        return unmatchedLogouts;
+    }
+
+    /**
+     * Removes all sessions and open logins.
+     */
+    public void clear() {
+        users = new UserSessions[16];
+        userBase = 0;
+        userLimit = 0;
+        sessionCount = 0;
+        unmatchedLogouts = 0;
+    }
+
+    // Returns the sessions of the user with the given name, or null if there are none
+    private UserSessions get(String user) {
+        return get(UsernameDictionary.getGlobal().lookup(user));
+    }
+
+    // Returns the sessions of the user with the given id, or null if there are none
+    private UserSessions get(int userId) {
+        return (userId >= userBase && userId < userLimit) ? users[userId - userBase] : null;
+    }
+
+    private UserSessions getOrAdd(int userId) {
+        if (userLimit == 0) {
+            userBase = userId;
+        } else if (userId < userBase) {
+            // Move the users up to make room below them
+            int shift = userBase - userId;
+            UserSessions[] grown = new UserSessions[Math.max(userLimit - userId, users.length * 2)];
+            System.arraycopy(users, 0, grown, shift, userLimit - userBase);
+            users = grown;
+            userBase = userId;
+        } else if (userId - userBase >= users.length) {
+            users = Arrays.copyOf(users, Math.max(userId - userBase + 1, users.length * 2));
+        }
+        userLimit = Math.max(userLimit, userId + 1);
+        int index = userId - userBase;
+        if (users[index] == null) {
+            users[index] = new UserSessions();
+        }
+        return users[index];
+    }
+
+    /* Sessions of a single user, ordered by login time, and the logins still open per terminal. */
+    private static class UserSessions {
+        ArrayList<Session> sessions = new ArrayList<>();
+        HashMap<Integer, Session> open = new HashMap<>(4);
+
+        // Inserts after any session with the same login time, so arrival order breaks ties
+        void insert(Session session) {
+            int index = upperBound(session.getLoginMillis());
+            sessions.add(index, session);
+        }
+
+        // Swaps an active session for its closed version in place
+        void replace(Session active, Session closed) {
+            int index = upperBound(active.getLoginMillis()) - 1;
+            while (sessions.get(index) != active) {
+                index--;
+            }
+            sessions.set(index, closed);
+        }
+
+        // Index of the first session logged in strictly after the given time
+        private int upperBound(long time) {
+            int size = sessions.size();
+            // Logs are normally in time order, so check the append position first
+            if (size == 0 || sessions.get(size - 1).getLoginMillis() <= time) {
+                return size;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sessions.get(mid).getLoginMillis() <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
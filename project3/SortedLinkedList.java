@@ -1,6 +1,10 @@
 package project3;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -69,6 +73,109 @@ public class SortedLinkedList<E extends Comparable<E>>
         return true;
     }
 
+    /**
+     * Adds all elements of the specified collection to the list in ascending
+     * order. The elements are sorted once and then merged into the list in a
+     * single pass, which takes O(n + m log m) time instead of the O(n * m) of
+     * adding them one by one. <code>null</code> elements are skipped.
+     * Elements that compare as equal to ones already in the list are placed
+     * after them.
+     *
+     * @param c the elements to add
+     * @return <code>true</code> if the list changed as a result of the call
+     */
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == null)
+            return false;
+        List<E> elements = new ArrayList<>(c.size());
+        for (E element : c) {
+            if (element != null)
+                elements.add(element);
+        }
+        Collections.sort(elements);
+        return mergeSorted(elements.iterator());
+    }
+
+    /**
+     * Adds all elements returned by the specified iterator, which must return
+     * them in ascending order, to the list. The elements are merged into the
+     * list in a single pass, in O(n + m) time. <code>null</code> elements are
+     * skipped. Elements that compare as equal to ones already in the list are
+     * placed after them.
+     *
+     * @param elements the elements to add, in ascending order
+     * @return <code>true</code> if the list changed as a result of the call
+     * @throws IllegalArgumentException if the elements are not in ascending
+     *         order; the list is not changed in that case
+     */
+    public boolean addSorted(Iterator<? extends E> elements) {
+        if (elements == null)
+            return false;
+        List<E> sorted = new ArrayList<>();
+        while (elements.hasNext()) {
+            E element = elements.next();
+            if (element == null)
+                continue;
+            if (!sorted.isEmpty() && sorted.get(sorted.size() - 1).compareTo(element) > 0)
+                throw new IllegalArgumentException("elements are not in ascending order");
+            sorted.add(element);
+        }
+        return mergeSorted(sorted.iterator());
+    }
+
+    /**
+     * Adds all elements of the specified list to this list, keeping it sorted.
+     * Both lists are walked once, so this takes O(n + m) time. The other list
+     * is not changed. Elements that compare as equal to ones already in this
+     * list are placed after them.
+     *
+     * @param other the list whose elements are added
+     * @return <code>true</code> if this list changed as a result of the call
+     */
+    public boolean merge(SortedLinkedList<E> other) {
+        if (other == null)
+            return false;
+        // Copy the other list first, in case it is this list
+        List<E> elements = new ArrayList<>(other.size);
+        for (E element : other)
+            elements.add(element);
+        return mergeSorted(elements.iterator());
+    }
+
+    /*
+     * Splices the elements, which must be in ascending order, into the list.
+     * Each new element is inserted before the first node greater than it,
+     * and the search for the next one continues from there.
+     */
+    private boolean mergeSorted(Iterator<E> elements) {
+        boolean changed = false;
+        Node previous = null;
+        Node current = head;
+        while (elements.hasNext()) {
+            Node newNode = new Node(elements.next());
+            while (current != null && current.compareTo(newNode) <= 0) {
+                previous = current;
+                current = current.next;
+            }
+            newNode.prev = previous;
+            newNode.next = current;
+            if (previous != null) {
+                previous.next = newNode;
+            } else { // New head insertion
+                head = newNode;
+            }
+            if (current != null) {
+                current.prev = newNode;
+            } else { // Inserting at the end
+                tail = newNode;
+            }
+            previous = newNode;
+            size++;
+            changed = true;
+        }
+        return changed;
+    }
+
     /**
      * Removes all elements from the list.
      */
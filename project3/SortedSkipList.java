@@ -0,0 +1,362 @@
+package project3;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This is an implementation of a sorted list backed by an indexable skip list.
+ * It has the same public methods as <code>SortedLinkedList</code>, but every
+ * node also links forward past a random number of other nodes and records how
+ * many elements each link skips. Insertion, removal, searching and access by
+ * index therefore take expected O(log n) time instead of O(n).
+ * All elements in the list are maintained in ascending/increasing order
+ * based on the natural order of the elements.
+ * This list does not allow <code>null</code> elements.
+ *
+ * Elements that are <code>equals</code> to each other are expected to compare
+ * as equal, which is how the search methods find them.
+ *
+ * @author Puyuan Song
+ *
+ * @param <E> the type of elements held in this list
+ */
+public class SortedSkipList<E extends Comparable<E>>
+        implements Iterable<E> {
+
+    // Enough levels for any list that fits in an int-sized index
+    private static final int MAX_LEVEL = 32;
+
+    private Node<E> head;
+    private int level;
+    private int size;
+
+    /**
+     * Constructs a new empty sorted skip list.
+     */
+    public SortedSkipList() {
+        clear();
+    }
+
+    /**
+     * Adds the specified element to the list in ascending order.
+     * The element is placed before any elements that compare as equal to it.
+     *
+     * @param element the element to add
+     * @return <code>true</code> if the element was added successfully,
+     *         <code>false</code> otherwise (if <code>element==null</code>)
+     */
+    public boolean add(E element) {
+        if (element == null)
+            return false;
+
+        // Find the last node before the element on every level, and its index
+        @SuppressWarnings("unchecked")
+        Node<E>[] update = (Node<E>[]) new Node<?>[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node<E> current = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = (i == level - 1) ? 0 : rank[i + 1];
+            while (current.next[i] != null && current.next[i].data.compareTo(element) < 0) {
+                rank[i] += current.span[i];
+                current = current.next[i];
+            }
+            update[i] = current;
+        }
+
+        int newLevel = randomLevel();
+        if (newLevel > level) {
+            for (int i = level; i < newLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = newLevel;
+        }
+
+        Node<E> newNode = new Node<E>(element, newLevel);
+        for (int i = 0; i < newLevel; i++) {
+            newNode.next[i] = update[i].next[i];
+            update[i].next[i] = newNode;
+            newNode.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        // Links above the new node now skip one more element
+        for (int i = newLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes all elements from the list.
+     */
+    public void clear() {
+        head = new Node<E>(null, MAX_LEVEL);
+        level = 1;
+        size = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the list contains the specified element,
+     * <code>false</code> otherwise.
+     *
+     * @param o the element to search for
+     * @return <code>true</code> if the element is in the list,
+     *         <code>false</code> otherwise
+     */
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * Returns the element at the specified index in the list.
+     *
+     * @param index the index of the element to return
+     * @return the element at the specified index
+     * @throw IndexOutOfBoundsException if the index is out of
+     *        range <code>(index < 0 || index >= size())</code>
+     */
+    public E get(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return nodeAt(index).data;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the specified element in the
+     * list, or -1 if the element is not in the list.
+     *
+     * @param o the element to search for
+     * @return the index of the first occurrence of the element,
+     *         or -1 if the element is not in the list
+     */
+    public int indexOf(Object o) {
+        return nextIndexOf(o, 0);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the specified element in the
+     * list, starting at the specified <code>index</code>, i.e., in the range of
+     * indexes <code>index <= i < size()</code>, or -1 if the element is not in
+     * the list in the range of indexes <code>index <= i < size()</code>.
+     *
+     * @param o     the element to search for
+     * @param index the index to start searching from
+     * @return the index of the first occurrence of the element, starting at the
+     *         specified index,
+     *         or -1 if the element is not found
+     */
+    public int nextIndexOf(Object o, int index) {
+        if (o == null || index < 0 || index >= size)
+            return -1;
+        try {
+            @SuppressWarnings("unchecked")
+            E key = (E) o;
+            int i = Math.max(index, lowerBound(key));
+            if (i >= size)
+                return -1;
+            // Check the elements that compare as equal, from the start index on
+            Node<E> current = nodeAt(i);
+            while (current != null && current.data.compareTo(key) == 0) {
+                if (current.data.equals(o))
+                    return i;
+                current = current.next[0];
+                i++;
+            }
+            return -1;
+        } catch (ClassCastException e) {
+            return -1; // o cannot be compared with the elements of this list
+        }
+    }
+
+    /**
+     * Removes the first occurence of the specified element from the list.
+     *
+     * @param o the element to remove
+     * @return <code>true</code> if the element was removed successfully,
+     *         <code>false</code> otherwise
+     */
+    public boolean remove(Object o) {
+        int index = indexOf(o);
+        if (index < 0)
+            return false;
+
+        // Find the last node before the index on every level
+        @SuppressWarnings("unchecked")
+        Node<E>[] update = (Node<E>[]) new Node<?>[MAX_LEVEL];
+        Node<E> current = head;
+        int traversed = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (current.next[i] != null && traversed + current.span[i] <= index) {
+                traversed += current.span[i];
+                current = current.next[i];
+            }
+            update[i] = current;
+        }
+
+        Node<E> removed = update[0].next[0];
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == removed) {
+                update[i].span[i] += removed.span[i] - 1;
+                update[i].next[i] = removed.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the size of the list.
+     *
+     * @return the size of the list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an iterator over the elements in the list.
+     *
+     * @return an iterator over the elements in the list
+     */
+    public Iterator<E> iterator() {
+        return new ListIterator();
+    }
+
+    /**
+     * Compares the specified object with this list for equality.
+     *
+     * @param o the object to compare with
+     * @return <code>true</code> if the specified object is equal to this list,
+     *         <code>false</code> otherwise
+     */
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SortedSkipList<?> other = (SortedSkipList<?>) o;
+        if (this.size != other.size) return false;
+
+        Iterator<?> otherElements = other.iterator();
+        for (E element : this) {
+            if (!element.equals(otherElements.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code consistent with <code>equals</code>.
+     *
+     * @return the hash code of the elements in order
+     */
+    public int hashCode() {
+        int hash = 1;
+        for (E element : this) {
+            hash = 31 * hash + element.hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a string representation of the list.
+     * The string representation consists of a list of the lists's elements in
+     * ascending order, enclosed in square brackets ("[]").
+     * Adjacent elements are separated by the characters ", " (comma and space).
+     *
+     * @return a string representation of the list
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        Node<E> current = head.next[0];
+        while (current != null) {
+            sb.append(current.data);
+            if (current.next[0] != null) {
+                sb.append(", ");
+            }
+            current = current.next[0];
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    // Returns the index of the first element that is not smaller than the key
+    private int lowerBound(E key) {
+        Node<E> current = head;
+        int traversed = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (current.next[i] != null && current.next[i].data.compareTo(key) < 0) {
+                traversed += current.span[i];
+                current = current.next[i];
+            }
+        }
+        return traversed;
+    }
+
+    // Returns the node at the given index, following the links that do not overshoot it
+    private Node<E> nodeAt(int index) {
+        Node<E> current = head;
+        int traversed = -1; // the head comes before index 0
+        for (int i = level - 1; i >= 0; i--) {
+            while (current.next[i] != null && traversed + current.span[i] <= index) {
+                traversed += current.span[i];
+                current = current.next[i];
+            }
+            if (traversed == index)
+                return current;
+        }
+        return current;
+    }
+
+    // Each level above the first is used with probability 1/2
+    private static int randomLevel() {
+        int bits = ThreadLocalRandom.current().nextInt();
+        return Math.min(MAX_LEVEL, 1 + Integer.numberOfTrailingZeros(~bits));
+    }
+
+    /* Nested class to represent nodes of this list. */
+    private static class Node<T> {
+        T data;
+        Node<T>[] next;
+        // Number of elements each link moves forward by
+        int[] span;
+
+        Node(T data, int level) {
+            this.data = data;
+            @SuppressWarnings("unchecked")
+            Node<T>[] links = (Node<T>[]) new Node<?>[level];
+            this.next = links;
+            this.span = new int[level];
+        }
+    }
+
+    /* A basic forward iterator for this list. */
+    private class ListIterator implements Iterator<E> {
+
+        Node<E> nextToReturn = head.next[0];
+
+        @Override
+        public boolean hasNext() {
+            return nextToReturn != null;
+        }
+
+        @Override
+        public E next() throws NoSuchElementException {
+            if (nextToReturn == null)
+                throw new NoSuchElementException("the end of the list reached");
+            E tmp = nextToReturn.data;
+            nextToReturn = nextToReturn.next[0];
+            return tmp;
+        }
+
+    }
+}
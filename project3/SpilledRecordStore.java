@@ -0,0 +1,494 @@
+ /**
+ * The SpilledRecordStore keeps the records of a log on disk instead of on the
+ * heap, for logs too large to fit in memory. Only the usernames and a small
+ * buffer per file are held in memory.
+ *
+ * Records are appended to a file in log order, which serves get, and are also
+ * partitioned by a hash of their username into one spill file per partition,
+ * so all records of a user end up in the same, much smaller file. Before a
+ * user is queried, the partition holding the user is paired into sessions in
+ * memory, one partition at a time, and the sessions are written to a session
+ * file of the partition, grouped by user and ordered by login time. A
+ * partition whose sessions would not fit in a fraction of the heap is paired
+ * in several passes over its file, each pairing only a slice of its users, so
+ * the heap needed does not grow with the size of the log. An index file holds
+ * the offset and number of sessions of every user, so a query reads only that
+ * user's sessions from disk. A partition is paired again only after records
+ * were added to it.
+ *
+ * Session listeners each get their own Sessionizer, which pairs every record
+ * as it is added; it only holds the open logins in memory.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SpilledRecordStore implements RecordStore, Closeable {
+
+    private static final int DEFAULT_PARTITIONS = 64;
+    // Terminal (negative for a logout), username id, time
+    private static final int RECORD_BYTES = 16;
+    // Terminal, username id, login time, logout time
+    private static final int SESSION_BYTES = 24;
+    // Offset in the session file, number of sessions
+    private static final int INDEX_BYTES = 12;
+    private static final long NO_LOGOUT = Long.MIN_VALUE;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Rough heap taken by a record once it is paired: the Record and its share of a Session
+    private static final int PAIRED_RECORD_BYTES = 96;
+    // The share of the largest heap that pairing one slice of a partition may use
+    private static final int PAIRING_HEAP_FRACTION = 8;
+
+    private File directory;
+    private UsernameDictionary usernames;
+    private int partitionCount;
+    private int size;
+
+    // All records in log order
+    private File logFile;
+    private DataOutputStream log;
+    private RandomAccessFile logReader;
+    // Records of each partition in log order, and whether it changed since it was paired
+    private File[] partitionFiles;
+    private DataOutputStream[] partitions;
+    private boolean[] dirty;
+    // Sessions of each partition, grouped by user
+    private File[] sessionFiles;
+    // Where the sessions of each username id are, INDEX_BYTES per id
+    private File indexFile;
+    private RandomAccessFile index;
+
+    // One Sessionizer per listener, each only tracks the open logins
+    private ArrayList<Sessionizer> pairings = new ArrayList<>();
+    // Told the user of every record added
+    private CopyOnWriteArrayList<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs an empty SpilledRecordStore with its files in the given
+     * directory and the default number of partitions.
+     *
+     * @param directory where the spill files are written
+     * @param usernames the dictionary usernames are encoded with
+     * @throws IOException If the spill files cannot be created.
+     */
+    public SpilledRecordStore(File directory, UsernameDictionary usernames) throws IOException {
+        this(directory, usernames, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Constructs an empty SpilledRecordStore with its files in the given
+     * directory. The files are deleted when the store is closed, or when the
+     * program exits.
+     *
+     * @param directory where the spill files are written
+     * @param usernames the dictionary usernames are encoded with
+     * @param partitionCount the number of partitions the records are split into
+     * @throws IllegalArgumentException If the directory or dictionary is null or the count is not positive.
+     * @throws IOException If the spill files cannot be created.
+     */
+    public SpilledRecordStore(File directory, UsernameDictionary usernames, int partitionCount) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null.");
+        }
+        if (usernames == null) {
+            throw new IllegalArgumentException("Username dictionary cannot be null.");
+        }
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("Partition count must be a positive integer.");
+        }
+        this.directory = directory;
+        this.usernames = usernames;
+        this.partitionCount = partitionCount;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+
+        logFile = spillFile("records.bin");
+        log = open(logFile);
+        partitionFiles = new File[partitionCount];
+        partitions = new DataOutputStream[partitionCount];
+        sessionFiles = new File[partitionCount];
+        dirty = new boolean[partitionCount];
+        for (int p = 0; p < partitionCount; p++) {
+            partitionFiles[p] = spillFile("partition-" + p + ".bin");
+            partitions[p] = open(partitionFiles[p]);
+            sessionFiles[p] = spillFile("sessions-" + p + ".bin");
+        }
+        indexFile = spillFile("users.idx");
+        index = new RandomAccessFile(indexFile, "rw");
+        index.setLength(0);
+    }
+
+    /**
+     * Appends the record to the log file and to the file of its partition.
+     *
+     * @param record the record to add
+     * @return true
+     * @throws IllegalArgumentException If the record is null.
+     * @throws UncheckedIOException If the record cannot be written.
+     */
+    @Override
+    public boolean add(Record record) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record cannot be null.");
+        }
+        int userId = (usernames == UsernameDictionary.getGlobal())
+                ? record.getUserId() : usernames.intern(record.getUsername());
+        int terminal = record.isLogin() ? record.getTerminal() : -record.getTerminal();
+        long time = record.getTimeMillis();
+        int partition = partitionOf(record.getUsername());
+        try {
+            write(log, terminal, userId, time);
+            write(partitions[partition], terminal, userId, time);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dirty[partition] = true;
+        size++;
+        for (Sessionizer pairing : pairings) {
+            pairing.accept(record);
+        }
+        for (AppendListener listener : appendListeners) {
+            listener.recordAppended(record.getUserId());
+        }
+        return true;
+    }
+
+    /**
+     * Reads the record at the given position back from the log file.
+     *
+     * @param index the position of the record
+     * @return a new Record holding the values stored at that position
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     * @throws UncheckedIOException If the record cannot be read.
+     */
+    @Override
+    public Record get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        try {
+            log.flush();
+            if (logReader == null) {
+                logReader = new RandomAccessFile(logFile, "r");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+            read(logReader.getChannel(), buffer, (long) index * RECORD_BYTES);
+            return decodeRecord(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of records in the store.
+     * @return the number of records
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Registers a listener to be told about the sessions already paired and
+     * the sessions of every record added from now on. The records are read
+     * back from the log file and paired for the listener, in log order.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     * @throws UncheckedIOException If the records cannot be read.
+     */
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        Sessionizer pairing = new Sessionizer(false);
+        pairing.addListener(listener);
+        try {
+            log.flush();
+            try (FileChannel channel = FileChannel.open(logFile.toPath())) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = 0;
+                long end = (long) size * RECORD_BYTES;
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    read(channel, buffer, position);
+                    position += buffer.limit();
+                    while (buffer.hasRemaining()) {
+                        pairing.accept(decodeRecord(buffer));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pairings.add(pairing);
+    }
+
+    /**
+     * Registers a listener to be told the user of every record added from now
+     * on, once the record can be seen by queries. Nothing is replayed to it.
+     *
+     * @param listener the listener to add
+     * @throws IllegalArgumentException If the listener is null.
+     */
+    @Override
+    public void addAppendListener(AppendListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        appendListeners.add(listener);
+    }
+
+    /**
+     * Returns the sessions of the given user ordered by login time, read from
+     * the session file of the user's partition. The partition is paired first
+     * if records were added to it since it was last paired.
+     *
+     * @param user the username to look up
+     * @return the user's sessions, or an empty list if the user has none
+     * @throws UncheckedIOException If the spill files cannot be read or written.
+     */
+    @Override
+    public List<Session> getSessions(String user) {
+        int userId = (user != null) ? usernames.lookup(user) : -1;
+        if (userId < 0) {
+            return Collections.emptyList();
+        }
+        int partition = partitionOf(user);
+        try {
+            if (dirty[partition]) {
+                pair(partition);
+            }
+            if ((long) userId * INDEX_BYTES >= index.length()) {
+                return Collections.emptyList();
+            }
+            index.seek((long) userId * INDEX_BYTES);
+            long offset = index.readLong();
+            int count = index.readInt();
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(count * SESSION_BYTES);
+            try (FileChannel channel = FileChannel.open(sessionFiles[partition].toPath())) {
+                read(channel, buffer, offset);
+            }
+            ArrayList<Session> sessions = new ArrayList<>(count);
+            while (buffer.hasRemaining()) {
+                sessions.add(decodeSession(buffer));
+            }
+            return Collections.unmodifiableList(sessions);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieves the first session for the specified user.
+     * The first session is defined as the session with the earliest login time.
+     *
+     * @param user The username to search for.
+     * @return The first Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getFirstSession(String user) {
+        List<Session> sessions = getUserSessions(user);
+        return sessions.get(0);
+    }
+
+    /**
+     * Retrieves the last session for the specified user.
+     * The last session is defined as the session with the latest login time.
+     *
+     * @param user The username to search for.
+     * @return The last Session object for the user.
+     * @throws IllegalArgumentException If the user is null or empty.
+     * @throws NoSuchElementException If no matching session for the user is found.
+     */
+    @Override
+    public Session getLastSession(String user) {
+        List<Session> sessions = getUserSessions(user);
+        return sessions.get(sessions.size() - 1);
+    }
+
+    /**
+     * Closes the spill files and deletes them.
+     *
+     * @throws IOException If a file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+        if (logReader != null) {
+            logReader.close();
+        }
+        for (DataOutputStream partition : partitions) {
+            partition.close();
+        }
+        index.close();
+        logFile.delete();
+        indexFile.delete();
+        for (int p = 0; p < partitionCount; p++) {
+            partitionFiles[p].delete();
+            sessionFiles[p].delete();
+        }
+    }
+
+    // Validates the username and returns its non-empty list of sessions
+    private List<Session> getUserSessions(String user) {
+        if (user == null || user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        List<Session> sessions = getSessions(user);
+        if (sessions.isEmpty()) {
+            throw new NoSuchElementException("No matching session found for user: " + user);
+        }
+        return sessions;
+    }
+
+    /*
+     * Pairs the records of a partition into sessions, and rewrites the session
+     * file of the partition and the index entries of its users. The users are
+     * split into as many slices as it takes for the sessions of one slice to
+     * fit in the heap budget, and each slice is paired in a pass of its own.
+     */
+    private void pair(int partition) throws IOException {
+        partitions[partition].flush();
+        long records = partitionFiles[partition].length() / RECORD_BYTES;
+        long budget = Math.max(1, Runtime.getRuntime().maxMemory() / PAIRING_HEAP_FRACTION);
+        long needed = records * PAIRED_RECORD_BYTES;
+        int slices = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (needed + budget - 1) / budget));
+        if (slices > 1) {
+            MetricsRegistry.getGlobal().add("spill.pair.passes", slices);
+        }
+        boolean[] seen = new boolean[usernames.size()];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sessionFiles[partition]), BUFFER_SIZE))) {
+            long offset = 0;
+            for (int slice = 0; slice < slices; slice++) {
+                offset = pairSlice(partition, slice, slices, seen, out, offset);
+            }
+        }
+        dirty[partition] = false;
+    }
+
+    /*
+     * Pairs the records of the users of the partition whose id falls in the
+     * given slice, and writes their sessions to the session file from the
+     * given offset. Returns the offset after the sessions written.
+     */
+    private long pairSlice(int partition, int slice, int slices, boolean[] seen,
+            DataOutputStream out, long offset) throws IOException {
+        Sessionizer sessionizer = new Sessionizer();
+        ArrayList<Integer> userIds = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(partitionFiles[partition].toPath())) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            long end = channel.size();
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                read(channel, buffer, position);
+                position += buffer.limit();
+                while (buffer.hasRemaining()) {
+                    int userId = buffer.getInt(buffer.position() + 4);
+                    if (userId % slices != slice) {
+                        buffer.position(buffer.position() + RECORD_BYTES);
+                        continue;
+                    }
+                    if (!seen[userId]) {
+                        seen[userId] = true;
+                        userIds.add(userId);
+                    }
+                    sessionizer.accept(decodeRecord(buffer));
+                }
+            }
+        }
+
+        for (int userId : userIds) {
+            List<Session> sessions = sessionizer.getSessions(usernames.getName(userId));
+            for (Session session : sessions) {
+                out.writeInt(session.getTerminal());
+                out.writeInt(userId);
+                out.writeLong(session.getLoginMillis());
+                out.writeLong((session.getLogout() != null) ? session.getLogoutMillis() : NO_LOGOUT);
+            }
+            index.seek((long) userId * INDEX_BYTES);
+            index.writeLong(offset);
+            index.writeInt(sessions.size());
+            offset += (long) sessions.size() * SESSION_BYTES;
+        }
+        return offset;
+    }
+
+    // Spreads the hash of the username, so similar names land in different partitions
+    private int partitionOf(String username) {
+        int hash = username.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), partitionCount);
+    }
+
+    private Record decodeRecord(ByteBuffer buffer) {
+        int terminal = buffer.getInt();
+        int userId = buffer.getInt();
+        long time = buffer.getLong();
+        return new Record(Math.abs(terminal), terminal > 0, usernames.globalId(userId), time);
+    }
+
+    private Session decodeSession(ByteBuffer buffer) {
+        int terminal = buffer.getInt();
+        int userId = usernames.globalId(buffer.getInt());
+        long login = buffer.getLong();
+        long logout = buffer.getLong();
+        Record loginRecord = new Record(terminal, true, userId, login);
+        Record logoutRecord = (logout != NO_LOGOUT) ? new Record(terminal, false, userId, logout) : null;
+        return new Session(loginRecord, logoutRecord);
+    }
+
+    private File spillFile(String name) {
+        File file = new File(directory, name);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static DataOutputStream open(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    private static void write(DataOutputStream out, int terminal, int userId, long time) throws IOException {
+        out.writeInt(terminal);
+        out.writeInt(userId);
+        out.writeLong(time);
+    }
+
+    // Fills the buffer from the given position of the file and flips it for reading
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of spill file");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,215 @@
+ /**
+ * The UsernameDictionary maps every distinct username to a dense integer id
+ * and a single shared String instance. Names can be looked up straight from
+ * the UTF-8 bytes of a log line, so a parser only allocates a String the first
+ * time it sees a user.
+ *
+ * Records identify their user by an id of the global dictionary, so sessions
+ * are matched and grouped by comparing ints. Other dictionaries translate
+ * their ids to global ones with globalId.
+ *
+ * @author Puyuan Song
+ */
+package project3;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class UsernameDictionary {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The dictionary the ids of records refer to
+    private static final UsernameDictionary GLOBAL = new UsernameDictionary();
+
+    // Names and their UTF-8 bytes, indexed by id; names is republished after every change
+    // so getName can read it without locking
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private byte[][] bytes = new byte[INITIAL_CAPACITY][];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // Ids by name, so names given as Strings are looked up and interned without encoding or locking
+    private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // Open-addressing hash table holding id + 1 (0 marks an empty slot)
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    // Global id + 1 of each id of this dictionary, 0 if not resolved yet
+    private int[] globalIds = new int[0];
+
+    // Default constructor to create an empty UsernameDictionary object
+    public UsernameDictionary() {
+    }
+
+    /**
+     * Returns the global dictionary, whose ids are the ones stored in records.
+     * @return the global username dictionary
+     */
+    public static UsernameDictionary getGlobal() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns the id the global dictionary has for the username with the given
+     * id in this dictionary.
+     *
+     * @param id the id of the username in this dictionary
+     * @return the id of the username in the global dictionary
+     * @throws IndexOutOfBoundsException If no username has this id.
+     */
+    public int globalId(int id) {
+        if (this == GLOBAL) {
+            return id;
+        }
+        synchronized (this) {
+            if (id >= globalIds.length) {
+                globalIds = Arrays.copyOf(globalIds, Math.max(id + 1, globalIds.length * 2));
+            }
+            if (globalIds[id] == 0) {
+                globalIds[id] = GLOBAL.intern(getName(id)) + 1;
+            }
+            return globalIds[id] - 1;
+        }
+    }
+
+    /**
+     * Returns the id of the username stored in the given bytes, adding the
+     * username to the dictionary if it is not there yet.
+     *
+     * @param buffer the array holding the UTF-8 encoded username
+     * @param offset the index of the first byte of the username
+     * @param length the number of bytes of the username
+     * @return the id of the username
+     * @throws IllegalArgumentException If the username is empty.
+     */
+    public int intern(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        return intern(buffer, offset, length, null);
+    }
+
+    /**
+     * Returns the id of the given username, adding it to the dictionary if it
+     * is not there yet. A name already in the dictionary is found without
+     * locking; only a new name is encoded and added under the lock.
+     *
+     * @param name the username
+     * @return the id of the username
+     * @throws IllegalArgumentException If the username is null or empty.
+     */
+    public int intern(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be null or empty.");
+        }
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        return intern(encoded, 0, encoded.length, name);
+    }
+
+    // Finds or adds the username in the given bytes, using the name as its String if it is given
+    private synchronized int intern(byte[] buffer, int offset, int length, String name) {
+        int hash = hash(buffer, offset, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash
+                    && Arrays.equals(bytes[id], 0, bytes[id].length, buffer, offset, offset + length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (name == null) {
+            byte[] copy = Arrays.copyOfRange(buffer, offset, offset + length);
+            return insert(slot, hash, copy, new String(copy, StandardCharsets.UTF_8));
+        }
+        // The bytes were encoded from the name for this call only, so they can be kept
+        return insert(slot, hash, buffer, name);
+    }
+
+    /**
+     * Returns the id of the given username without adding it.
+     *
+     * @param name the username
+     * @return the id of the username, or -1 if it is not in the dictionary
+     */
+    public int lookup(String name) {
+        if (name == null || name.isEmpty()) {
+            return -1;
+        }
+        Integer id = ids.get(name);
+        return (id != null) ? id : -1;
+    }
+
+    /**
+     * Returns the username with the given id.
+     *
+     * @param id the id of the username
+     * @return the shared String instance of the username
+     * @throws IndexOutOfBoundsException If no username has this id.
+     */
+    public String getName(int id) {
+        String[] current = names;
+        String name = (id >= 0 && id < current.length) ? current[id] : null;
+        if (name == null) {
+            throw new IndexOutOfBoundsException("No username with id: " + id);
+        }
+        return name;
+    }
+
+    /**
+     * Returns the number of distinct usernames in the dictionary.
+     * @return the number of usernames
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    // Stores a new username in the given empty slot and returns its id
+    private int insert(int slot, int hash, byte[] encoded, String name) {
+        String[] current = names;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+            bytes = Arrays.copyOf(bytes, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        current[id] = name;
+        names = current;
+        ids.put(name, id);
+        bytes[id] = encoded;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+        // Keep the table at most half full
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        // Spread the low bits, the table index is taken from them
+        return hash ^ (hash >>> 16);
+    }
+}
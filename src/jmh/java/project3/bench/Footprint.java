@@ -0,0 +1,55 @@
+ /**
+ * The Footprint reports the heap taken per record by every storage once a log
+ * is loaded, and how many records fit in a gigabyte of heap at that rate. It
+ * complements LoginStatsBenchmark, which only measures times.
+ *
+ * @author Puyuan Song
+ */
+package project3.bench;
+import project3.LoginStats;
+import project3.UsernameDictionary;
+
+public class Footprint {
+
+    /**
+     * Prints the footprint of every storage.
+     *
+     * @param args [SIZES...], the record counts of the logs (100000 and 1000000 by default)
+     */
+    public static void main(String[] args) {
+        int[] sizes = { 100000, 1000000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        String[] storeNames = { "list", "columnar", "concurrent", "offheap" };
+        try {
+            for (int size : sizes) {
+                String fileName = LoginStatsBenchmark.log(size).getPath();
+                for (String storeName : storeNames) {
+                    // Count the usernames in the footprint of every storage, not just the first
+                    long before = usedHeap();
+                    LoginStats stats = LoginStatsBenchmark.load(storeName, fileName, new UsernameDictionary());
+                    int records = stats.getRecords().size();
+                    long perRecord = (usedHeap() - before) / records;
+                    System.out.printf("%-44s %12d bytes/record %25d records/GB%n",
+                            "footprint " + storeName + " " + size, perRecord, (1L << 30) / Math.max(1, perRecord));
+                    stats.close();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("An unexpected error occurred: " + e.getMessage());
+        }
+    }
+
+    // Returns the heap in use after collecting garbage
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
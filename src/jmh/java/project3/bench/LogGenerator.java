@@ -0,0 +1,136 @@
+ /**
+ * The LogGenerator writes synthetic login logs in the format read by
+ * LoginStats, for testing and benchmarking on realistic volumes of data.
+ *
+ * Logins arrive at random intervals for random users on random terminals, and
+ * every session lasts an exponentially distributed time around the configured
+ * mean. Logouts are written in time order with the logins, and sessions still
+ * open at the end of the log stay active.
+ *
+ * @author Puyuan Song
+ */
+package project3.bench;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+public class LogGenerator {
+
+    // Time of the first record, Sun Oct 01 2023 00:00:00 UTC
+    private static final long START_TIME = 1696118400000L;
+
+    private int users;
+    private int terminals;
+    private long meanSessionMillis;
+    private Random random;
+
+    /**
+     * Constructs a LogGenerator.
+     *
+     * @param users the number of distinct users
+     * @param terminals the number of terminals
+     * @param meanSessionMillis the mean length of a session in milliseconds
+     * @param seed the seed of the random numbers, the same seed gives the same log
+     * @throws IllegalArgumentException If a count or the session length is not positive.
+     */
+    public LogGenerator(int users, int terminals, long meanSessionMillis, long seed) {
+        if (users <= 0 || terminals <= 0 || meanSessionMillis <= 0) {
+            throw new IllegalArgumentException("Users, terminals and session length must be positive.");
+        }
+        this.users = users;
+        this.terminals = terminals;
+        this.meanSessionMillis = meanSessionMillis;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Returns the username of the user with the given number.
+     *
+     * @param user the number of the user, from 0 to users - 1
+     * @return the username
+     */
+    public static String username(int user) {
+        return "user" + user;
+    }
+
+    /**
+     * Writes a log of the given number of records.
+     *
+     * @param out receives the lines of the log
+     * @param records the number of records to write
+     * @throws IOException If an error occurs while writing.
+     */
+    public void write(Writer out, int records) throws IOException {
+        // About half the terminals are busy at any time
+        double meanGap = (double) meanSessionMillis / Math.max(1, terminals / 2);
+        PriorityQueue<long[]> open = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        HashSet<Long> busy = new HashSet<>();
+        long now = START_TIME;
+        long nextLogin = now;
+        int written = 0;
+
+        StringBuilder line = new StringBuilder();
+        while (written < records) {
+            line.setLength(0);
+            if (!open.isEmpty() && open.peek()[0] <= nextLogin) {
+                // { logout time, user, terminal }
+                long[] session = open.poll();
+                now = session[0];
+                busy.remove(session[1] * terminals + session[2]);
+                line.append('-').append(session[2]).append(' ').append(now).append(' ')
+                        .append(username((int) session[1]));
+            } else {
+                now = nextLogin;
+                nextLogin = now + 1 + (long) exponential(meanGap);
+                int user = random.nextInt(users);
+                int terminal = 1 + random.nextInt(terminals);
+                if (!busy.add((long) user * terminals + terminal)) {
+                    continue;
+                }
+                long length = 1000 + (long) exponential(meanSessionMillis);
+                open.add(new long[] { now + length, user, terminal });
+                line.append(terminal).append(' ').append(now).append(' ').append(username(user));
+            }
+            out.write(line.append('\n').toString());
+            written++;
+        }
+        out.flush();
+    }
+
+    private double exponential(double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    /**
+     * Writes a synthetic log file.
+     *
+     * @param args RECORDS FILE [USERS] [TERMINALS] [MEAN_SESSION_MINUTES] [SEED]
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage Error: the program expects a record count and a file name as arguments.");
+            return;
+        }
+        try {
+            int records = Integer.parseInt(args[0]);
+            int users = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+            int terminals = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+            long minutes = (args.length > 4) ? Long.parseLong(args[4]) : 45;
+            long seed = (args.length > 5) ? Long.parseLong(args[5]) : 42;
+            LogGenerator generator = new LogGenerator(users, terminals, minutes * 60000, seed);
+            try (Writer out = new BufferedWriter(new FileWriter(args[1]), 1 << 16)) {
+                generator.write(out, records);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Invalid number: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error: Unable to write the file: " + args[1]);
+        }
+    }
+}
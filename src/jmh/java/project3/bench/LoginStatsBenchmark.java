@@ -0,0 +1,368 @@
+ /**
+ * The LoginStatsBenchmark measures the cost of the main operations of the
+ * program on synthetic logs made by LogGenerator with JMH: loading a log with
+ * each reader and storage, answering first/last queries at different log
+ * sizes, comparing sessions by time and formatting them, and inserting into
+ * and searching a SortedLinkedList and a SortedSkipList. The heap taken per
+ * record is reported by Footprint, since it is not a time.
+ *
+ * Every load parses into a new UsernameDictionary, so each one interns its
+ * usernames like the program does, instead of only looking up the names
+ * interned by the loads before it. Only readLogFile, which has no dictionary
+ * of its own, interns straight into the global one.
+ *
+ * Run with "gradle jmh", or select benchmarks with -Pjmh.includes=REGEX.
+ *
+ * @author Puyuan Song
+ */
+package project3.bench;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import project3.LoginStats;
+import project3.RecordStore;
+import project3.Session;
+import project3.SessionFormatter;
+import project3.Sessionizer;
+import project3.SortedLinkedList;
+import project3.SortedSkipList;
+import project3.UsernameDictionary;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoginStatsBenchmark {
+
+    // Lookups cycle through this many random keys, a power of two
+    private static final int KEYS = 1 << 10;
+
+    /**
+     * Writes a synthetic log of the given number of records to the temporary
+     * directory, or reuses the one written earlier.
+     *
+     * @param records the number of records
+     * @return the log file
+     * @throws IOException If the log cannot be written.
+     */
+    public static File log(int records) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "bench-" + records + ".log");
+        if (!file.exists()) {
+            LogGenerator generator = new LogGenerator(users(records), 500, 45 * 60000, records);
+            try (Writer writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+                generator.write(writer, records);
+            }
+        }
+        return file;
+    }
+
+    // The number of users in a log of the given size
+    private static int users(int records) {
+        return Math.max(10, records / 100);
+    }
+
+    /**
+     * Loads a log into a new LoginStats with the given storage: list,
+     * columnar, concurrent or offheap.
+     *
+     * @param storage the name of the storage
+     * @param fileName the log file
+     * @return the LoginStats holding the records
+     * @throws IOException If the log cannot be read.
+     */
+    public static LoginStats load(String storage, String fileName) throws IOException {
+        return load(storage, fileName, UsernameDictionary.getGlobal());
+    }
+
+    /**
+     * Loads a log into a new LoginStats with the given storage, interning the
+     * usernames in the given dictionary.
+     *
+     * @param storage the name of the storage
+     * @param fileName the log file
+     * @param usernames the dictionary the usernames are interned in
+     * @return the LoginStats holding the records
+     * @throws IOException If the log cannot be read.
+     */
+    public static LoginStats load(String storage, String fileName, UsernameDictionary usernames)
+            throws IOException {
+        LoginStats stats = new LoginStats(usernames);
+        if (storage.equals("columnar")) {
+            stats.useColumnarStorage();
+        } else if (storage.equals("concurrent")) {
+            stats.useConcurrentStorage();
+        } else if (storage.equals("offheap")) {
+            stats.useOffHeapStorage(null);
+        }
+        stats.readMappedLogFile(fileName);
+        return stats;
+    }
+
+    /* A log to load, with a new dictionary for every load. */
+    @State(Scope.Benchmark)
+    public static class IngestState {
+        @Param({ "100000", "1000000" })
+        int records;
+
+        String fileName;
+        UsernameDictionary usernames;
+
+        @Setup(Level.Trial)
+        public void writeLog() throws IOException {
+            fileName = log(records).getPath();
+        }
+
+        // Each load takes far longer than JMH's per-invocation overhead
+        @Setup(Level.Invocation)
+        public void newDictionary() {
+            usernames = new UsernameDictionary();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ingestReadLogFile(IngestState state) throws IOException {
+        LoginStats stats = new LoginStats();
+        stats.readLogFile(state.fileName);
+        return stats.getRecords().size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ingestReadMappedLogFile(IngestState state) throws IOException {
+        return load("list", state.fileName, state.usernames).getRecords().size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ingestReadLogFileParallel(IngestState state) throws IOException {
+        LoginStats stats = new LoginStats(state.usernames);
+        stats.readLogFileParallel(state.fileName);
+        return stats.getRecords().size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ingestMappedColumnar(IngestState state) throws IOException {
+        return load("columnar", state.fileName, state.usernames).getRecords().size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ingestMappedConcurrent(IngestState state) throws IOException {
+        return load("concurrent", state.fileName, state.usernames).getRecords().size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ingestMappedOffHeap(IngestState state) throws IOException {
+        return load("offheap", state.fileName, state.usernames).getRecords().size();
+    }
+
+    /* A loaded log and the random users to ask about. */
+    @State(Scope.Benchmark)
+    public static class QueryState {
+        @Param({ "100000", "1000000" })
+        int records;
+
+        @Param({ "list", "columnar", "concurrent", "offheap" })
+        String storage;
+
+        RecordStore store;
+        String[] names = new String[KEYS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void loadLog() throws IOException {
+            store = load(storage, log(records).getPath()).getRecords();
+            Random random = new Random(7);
+            for (int i = 0; i < KEYS; i++) {
+                names[i] = LogGenerator.username(random.nextInt(users(records)));
+            }
+        }
+
+        String nextName() {
+            return names[next++ & (KEYS - 1)];
+        }
+    }
+
+    @Benchmark
+    public Session queryFirst(QueryState state) {
+        return state.store.getFirstSession(state.nextName());
+    }
+
+    @Benchmark
+    public Session queryLast(QueryState state) {
+        return state.store.getLastSession(state.nextName());
+    }
+
+    /* The sessions of a log, in random order. */
+    @State(Scope.Benchmark)
+    public static class SessionState {
+        @Param({ "100000" })
+        int records;
+
+        Session[] shuffled;
+        SessionFormatter formatter = new SessionFormatter();
+        StringBuilder sb = new StringBuilder(256);
+        int next;
+
+        @Setup(Level.Trial)
+        public void pairSessions() throws IOException {
+            RecordStore store = load("list", log(records).getPath()).getRecords();
+            Sessionizer sessionizer = new Sessionizer();
+            for (int i = 0; i < store.size(); i++) {
+                sessionizer.accept(store.get(i));
+            }
+            List<Session> sessions = sessionizer.getAllSessions();
+            shuffled = sessions.toArray(new Session[0]);
+            Collections.shuffle(Arrays.asList(shuffled), new Random(5));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Session[] sessionsSortByLogin(SessionState state) {
+        Session[] sorted = state.shuffled.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(Session::getLoginMillis));
+        return sorted;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long sessionsTotalDuration(SessionState state) {
+        long total = 0;
+        for (Session session : state.shuffled) {
+            total += Math.max(0, session.getDuration());
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int formatSession(SessionState state) {
+        Session session = state.shuffled[state.next++ % state.shuffled.length];
+        state.sb.setLength(0);
+        return state.formatter.append(state.sb, session).length();
+    }
+
+    /* Random elements, and a SortedLinkedList holding them. */
+    @State(Scope.Benchmark)
+    public static class LinkedListState {
+        @Param({ "5000", "20000" })
+        int elements;
+
+        Integer[] values;
+        SortedLinkedList<Integer> list = new SortedLinkedList<>();
+        int next;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            values = randomValues(elements);
+            for (Integer value : values) {
+                list.add(value);
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int sortedLinkedListAdd(LinkedListState state) {
+        SortedLinkedList<Integer> list = new SortedLinkedList<>();
+        for (Integer value : state.values) {
+            list.add(value);
+        }
+        return list.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int sortedLinkedListAddAll(LinkedListState state) {
+        SortedLinkedList<Integer> list = new SortedLinkedList<>();
+        list.addAll(Arrays.asList(state.values));
+        return list.size();
+    }
+
+    @Benchmark
+    public Integer sortedLinkedListGet(LinkedListState state) {
+        return state.list.get(nextIndex(state.next++, state.elements));
+    }
+
+    @Benchmark
+    public int sortedLinkedListIndexOf(LinkedListState state) {
+        return state.list.indexOf(state.values[nextIndex(state.next++, state.elements)]);
+    }
+
+    /* Random elements, and a SortedSkipList holding them. */
+    @State(Scope.Benchmark)
+    public static class SkipListState {
+        @Param({ "5000", "20000", "1000000" })
+        int elements;
+
+        Integer[] values;
+        SortedSkipList<Integer> list = new SortedSkipList<>();
+        int next;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            values = randomValues(elements);
+            for (Integer value : values) {
+                list.add(value);
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int sortedSkipListAdd(SkipListState state) {
+        SortedSkipList<Integer> list = new SortedSkipList<>();
+        for (Integer value : state.values) {
+            list.add(value);
+        }
+        return list.size();
+    }
+
+    @Benchmark
+    public Integer sortedSkipListGet(SkipListState state) {
+        return state.list.get(nextIndex(state.next++, state.elements));
+    }
+
+    @Benchmark
+    public int sortedSkipListIndexOf(SkipListState state) {
+        return state.list.indexOf(state.values[nextIndex(state.next++, state.elements)]);
+    }
+
+    private static Integer[] randomValues(int elements) {
+        Random random = new Random(11);
+        Integer[] values = new Integer[elements];
+        for (int i = 0; i < elements; i++) {
+            values[i] = random.nextInt();
+        }
+        return values;
+    }
+
+    // Spreads consecutive lookups over the list
+    private static int nextIndex(int count, int elements) {
+        return (int) Math.floorMod(count * 7919L, (long) elements);
+    }
+}